@@ -0,0 +1,79 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.apply.ApplyReport;
+import io.github.wheezygold7931.discordthemer.apply.CooldownTracker;
+import io.github.wheezygold7931.discordthemer.apply.IconCache;
+import io.github.wheezygold7931.discordthemer.apply.ThemeApplier;
+import io.github.wheezygold7931.discordthemer.metrics.ThemerListener;
+import io.github.wheezygold7931.discordthemer.util.ActionMode;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.entities.Guild;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Planning a theme switch: diffing a theme against the stub guild and handing the actions to RestActions which complete immediately.
+ * "switch" alternates between two themes which rename every role, "unchanged" applies a theme the guild already has so every role is skipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ApplyPlanBenchmark {
+
+    @Param({"10", "100", "500"})
+    public int roles;
+
+    @Param({"switch", "unchanged"})
+    public String scenario;
+
+    private File themeDir;
+    private ThemeApplier applier;
+    private ThemeToken first;
+    private ThemeToken second;
+    private boolean flip;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        themeDir = ThemeFolders.generate(0, 0, "");
+        boolean unchanged = scenario.equals("unchanged");
+        ThemeFolders.write(new File(themeDir, "first.dat"), "First", roles, unchanged ? "Role " : "First ");
+        ThemeFolders.write(new File(themeDir, "second.dat"), "Second", roles, unchanged ? "Role " : "Second ");
+
+        Guild guild = JdaStubs.guild(roles);
+        DiscordThemerLogger logger = new DiscordThemerLogger("[bench]", false, false, false, false);
+        ThemeParser parser = new ThemeParser(guild, themeDir);
+        first = parser.parse(new File(themeDir, "first.dat"), logger);
+        second = parser.parse(new File(themeDir, "second.dat"), logger);
+        applier = new ThemeApplier(guild.getJDA(), guild, ThemeSource.directory(themeDir), ActionMode.QUEUE, 4, new IconCache(0), CooldownTracker.unlimited(), ThemerListener.NONE, logger);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ThemeFolders.delete(themeDir);
+    }
+
+    @Benchmark
+    public ApplyReport apply() {
+        flip = !flip;
+        ThemeToken token = flip ? first : second;
+        return applier.apply(token.getThemeName(), token).join();
+    }
+}
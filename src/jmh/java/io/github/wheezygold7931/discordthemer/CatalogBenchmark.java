@@ -0,0 +1,75 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.metrics.ThemerListener;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.entities.Guild;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a whole theme folder end to end, the way {@link DiscordThemerBuilder#build()} does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CatalogBenchmark {
+
+    private static final int ROLES_PER_THEME = 50;
+
+    @Param({"10", "100", "1000"})
+    public int themes;
+
+    @Param({"1", "4"})
+    public int loadThreads;
+
+    @Param({"false", "true"})
+    public boolean compiledCache;
+
+    private File themeDir;
+    private File cacheFile;
+    private Guild guild;
+    private DiscordThemerLogger logger;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        themeDir = ThemeFolders.generate(themes, ROLES_PER_THEME, "Themed ");
+        cacheFile = compiledCache ? File.createTempFile("discord-themer-bench", ".cache") : null;
+        guild = JdaStubs.guild(ROLES_PER_THEME);
+        logger = new DiscordThemerLogger("[bench]", false, false, false, false);
+        if (cacheFile != null) {
+            cacheFile.delete();
+            //Fill the cache so the benchmark measures a warm start
+            processThemes();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ThemeFolders.delete(themeDir);
+        if (cacheFile != null)
+            cacheFile.delete();
+    }
+
+    @Benchmark
+    public ThemeCatalog processThemes() {
+        return new ThemeCatalog(themeDir, null, guild, loadThreads, null, cacheFile, 0, 0, 0, false, ThemerListener.NONE, logger);
+    }
+}
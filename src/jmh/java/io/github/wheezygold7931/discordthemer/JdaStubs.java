@@ -0,0 +1,155 @@
+package io.github.wheezygold7931.discordthemer;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.SelfUser;
+import net.dv8tion.jda.api.requests.RestAction;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * In-memory stand-ins for the JDA entities the themer touches, built with {@link Proxy} so no connection to Discord is needed.
+ * RestActions complete immediately without doing anything, which keeps the benchmarks focused on the themer's own work.
+ */
+final class JdaStubs {
+
+    static final long GUILD_ID = 100000000000000000L;
+    static final long FIRST_ROLE_ID = 200000000000000000L;
+
+    private JdaStubs() {
+    }
+
+    /**
+     * Creates a guild with the given amount of roles named "Role 0", "Role 1", ... whose ids start at {@link JdaStubs#FIRST_ROLE_ID}.
+     * The bot has every permission and can interact with every role.
+     */
+    static Guild guild(int roleCount) {
+        Map<Long, Role> roles = new HashMap<>();
+        List<Role> roleList = new ArrayList<>(roleCount);
+        Guild[] guild = new Guild[1];
+        for (int i = 0; i < roleCount; i++) {
+            long id = FIRST_ROLE_ID + i;
+            String name = "Role " + i;
+            Role role = stub(Role.class, method -> {
+                switch (method) {
+                    case "getName":
+                        return args -> name;
+                    case "getIdLong":
+                        return args -> id;
+                    case "getId":
+                        return args -> Long.toString(id);
+                    case "getGuild":
+                        return args -> guild[0];
+                    default:
+                        return null;
+                }
+            });
+            roles.put(id, role);
+            roleList.add(role);
+        }
+
+        SelfUser selfUser = stub(SelfUser.class, method -> {
+            switch (method) {
+                case "getAvatarId":
+                    return args -> "avatar";
+                case "getId":
+                    return args -> "1";
+                default:
+                    return null;
+            }
+        });
+        JDA jda = stub(JDA.class, method -> {
+            switch (method) {
+                case "getSelfUser":
+                    return args -> selfUser;
+                case "getGuildById":
+                    return args -> guild[0];
+                default:
+                    return null;
+            }
+        });
+        Member self = stub(Member.class, method -> {
+            switch (method) {
+                case "hasPermission":
+                case "canInteract":
+                    return args -> true;
+                case "getNickname":
+                    return args -> "Themer";
+                case "getGuild":
+                    return args -> guild[0];
+                default:
+                    return null;
+            }
+        });
+        guild[0] = stub(Guild.class, method -> {
+            switch (method) {
+                case "getName":
+                    return args -> "Benchmark Guild";
+                case "getIdLong":
+                    return args -> GUILD_ID;
+                case "getId":
+                    return args -> Long.toString(GUILD_ID);
+                case "getIconId":
+                    return args -> "icon";
+                case "getRoles":
+                    return args -> roleList;
+                case "getRoleById":
+                    return args -> roles.get(args[0] instanceof String ? Long.parseLong((String) args[0]) : (Long) args[0]);
+                case "getSelfMember":
+                case "getMemberById":
+                    return args -> self;
+                case "getJDA":
+                    return args -> jda;
+                default:
+                    return null;
+            }
+        });
+        return guild[0];
+    }
+
+    /**
+     * Creates a stub of an interface. Methods without an answer return a completed RestAction stub for RestAction types,
+     * the stub itself for fluent setters and the default value for anything else.
+     * @param answers Maps a method name to its answer, or null if the method has none.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> T stub(Class<T> type, Function<String, Function<Object[], Object>> answers) {
+        return (T) Proxy.newProxyInstance(JdaStubs.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Function<Object[], Object> answer = answers.apply(method.getName());
+            if (answer != null)
+                return answer.apply(args);
+            Class<?> returnType = method.getReturnType();
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+                case "submit":
+                    return CompletableFuture.completedFuture(null);
+                default:
+                    break;
+            }
+            if (returnType.isInstance(proxy))
+                return proxy;
+            if (RestAction.class.isAssignableFrom(returnType))
+                return stub(returnType, name -> null);
+            if (returnType == boolean.class)
+                return false;
+            if (returnType == int.class)
+                return 0;
+            if (returnType == long.class)
+                return 0L;
+            return null;
+        });
+    }
+}
@@ -0,0 +1,66 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Validating and parsing a single theme file, from disk and from memory, against a guild with as many roles as the theme.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+
+    @Param({"10", "100", "1000"})
+    public int roles;
+
+    private File themeDir;
+    private File themeFile;
+    private byte[] content;
+    private ThemeParser parser;
+    private DiscordThemerLogger logger;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        themeDir = ThemeFolders.generate(1, roles, "Themed ");
+        themeFile = new File(themeDir, "theme0.dat");
+        content = Files.readAllBytes(themeFile.toPath());
+        parser = new ThemeParser(JdaStubs.guild(roles), themeDir);
+        logger = new DiscordThemerLogger("[bench]", false, false, false, false);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        ThemeFolders.delete(themeDir);
+    }
+
+    @Benchmark
+    public ThemeToken parseFile() {
+        return parser.parse(themeFile, logger);
+    }
+
+    @Benchmark
+    public ThemeToken parseBytes() {
+        return parser.parse(themeFile, content, logger, null);
+    }
+}
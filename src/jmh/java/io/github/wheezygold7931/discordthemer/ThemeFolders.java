@@ -0,0 +1,50 @@
+package io.github.wheezygold7931.discordthemer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Generates theme folders for the benchmarks, every theme renames the roles of a {@link JdaStubs#guild(int)}.
+ */
+final class ThemeFolders {
+
+    private ThemeFolders() {
+    }
+
+    /**
+     * @param themeCount The amount of theme files, named theme0.dat, theme1.dat, ...
+     * @param roleCount The amount of roles in each theme.
+     * @param roleNamePrefix The prefix of the role names, "Role " matches the names of the stub guild.
+     * @return The generated folder.
+     */
+    static File generate(int themeCount, int roleCount, String roleNamePrefix) throws IOException {
+        File dir = Files.createTempDirectory("discord-themer-bench").toFile();
+        for (int i = 0; i < themeCount; i++)
+            write(new File(dir, "theme" + i + ".dat"), "Theme " + i, roleCount, roleNamePrefix);
+        return dir;
+    }
+
+    static void write(File file, String displayName, int roleCount, String roleNamePrefix) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.println("//Generated for the benchmarks");
+            writer.println("MetaData:name:" + displayName);
+            writer.println("MetaData:title:" + displayName + " Guild");
+            writer.println("MetaData:nickname:" + displayName + " Bot");
+            writer.println("MetaData:parser:1");
+            writer.println();
+            for (int i = 0; i < roleCount; i++)
+                writer.println((JdaStubs.FIRST_ROLE_ID + i) + ":" + roleNamePrefix + i);
+        }
+    }
+
+    static void delete(File dir) throws IOException {
+        try (Stream<Path> paths = Files.walk(dir.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+        }
+    }
+}
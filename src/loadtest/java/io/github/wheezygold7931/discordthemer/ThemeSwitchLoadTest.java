@@ -0,0 +1,109 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.apply.ApplyReport;
+import io.github.wheezygold7931.discordthemer.apply.CooldownTracker;
+import io.github.wheezygold7931.discordthemer.apply.IconCache;
+import io.github.wheezygold7931.discordthemer.apply.ThemeApplier;
+import io.github.wheezygold7931.discordthemer.metrics.ThemerMetrics;
+import io.github.wheezygold7931.discordthemer.standin.DiscordStandIn;
+import io.github.wheezygold7931.discordthemer.standin.StandInGuild;
+import io.github.wheezygold7931.discordthemer.standin.StandInRequester;
+import io.github.wheezygold7931.discordthemer.util.ActionMode;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.entities.Guild;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Measures theme switch latency and throughput against a {@link DiscordStandIn}, without network access or real guilds.
+ * Every guild switches back and forth between two themes which rename all of its roles, the guilds switch in parallel.
+ * The budgets of {@link CooldownTracker#CooldownTracker()} apply, unlike the unlimited builder default, so title switches past the budget are deferred instead of sent.
+ * Usage: ThemeSwitchLoadTest [guilds] [roles per guild] [switches per guild] [latency ms] [QUEUE|ASYNC|BLOCKING]
+ */
+public class ThemeSwitchLoadTest {
+
+    public static void main(String[] args) throws Exception {
+        int guilds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        int roles = args.length > 1 ? Integer.parseInt(args[1]) : 250;
+        int switches = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+        long latency = args.length > 3 ? Long.parseLong(args[3]) : 50;
+        ActionMode actionMode = args.length > 4 ? ActionMode.valueOf(args[4]) : ActionMode.ASYNC;
+
+        File themeDir = Files.createTempDirectory("discord-themer-loadtest").toFile();
+        DiscordThemerLogger logger = new DiscordThemerLogger("[loadtest]", false, true, true, true);
+        ThemerMetrics metrics = new ThemerMetrics();
+
+        try (DiscordStandIn standIn = new DiscordStandIn(latency).start();
+             StandInRequester requester = new StandInRequester(standIn)) {
+            writeTheme(new File(themeDir, "day.dat"), "Day", roles);
+            writeTheme(new File(themeDir, "night.dat"), "Night", roles);
+            ThemeParser parser = new ThemeParser(null, themeDir);
+            ThemeToken day = parser.parse(new File(themeDir, "day.dat"), logger);
+            ThemeToken night = parser.parse(new File(themeDir, "night.dat"), logger);
+            IconCache iconCache = new IconCache(0);
+            CooldownTracker cooldowns = new CooldownTracker();
+            AtomicInteger deferred = new AtomicInteger();
+
+            System.out.println("Switching " + guilds + " guilds with " + roles + " roles " + switches + " times each (" + actionMode + ", " + latency + "ms latency)");
+            long start = System.nanoTime();
+            List<CompletableFuture<Void>> runs = new ArrayList<>();
+            for (int i = 0; i < guilds; i++) {
+                Guild guild = new StandInGuild(300000000000000000L + i, roles, standIn, requester).getGuild();
+                ThemeApplier applier = new ThemeApplier(guild.getJDA(), guild, ThemeSource.directory(themeDir), actionMode, 4, iconCache, cooldowns.forGuild(), metrics, logger);
+                runs.add(CompletableFuture.runAsync(() -> {
+                    for (int s = 0; s < switches; s++) {
+                        ThemeToken token = s % 2 == 0 ? night : day;
+                        long switchStart = System.nanoTime();
+                        ApplyReport report = applier.apply(token.getThemeName(), token).join();
+                        metrics.onThemeApplied(report, System.nanoTime() - switchStart);
+                        deferred.addAndGet(report.getDeferredCount());
+                    }
+                }));
+            }
+            CompletableFuture.allOf(runs.toArray(new CompletableFuture[0])).join();
+            long wallNanos = System.nanoTime() - start;
+            cooldowns.shutdown();
+
+            ServerCapture capture = new ServerCapture(themeDir, ServerCapture.DEFAULT_TIMEOUT_MILLIS, logger);
+            long captureStart = System.nanoTime();
+            capture.capture(new StandInGuild(400000000000000000L, roles, standIn, requester).getGuild(), "captured").join();
+            long captureNanos = System.nanoTime() - captureStart;
+
+            double seconds = wallNanos / 1e9;
+            System.out.println("Wall time: " + TimeUnit.NANOSECONDS.toMillis(wallNanos) + "ms");
+            System.out.println("Throughput: " + String.format("%.1f", guilds * switches / seconds) + " switches/s, " + String.format("%.1f", metrics.getActionsSent() / seconds) + " actions/s");
+            System.out.println("Switch latency: " + metrics.getApplyLatency());
+            System.out.println("Action latency: " + metrics.getActionLatency());
+            System.out.println("Stand-in: " + standIn.getRequestCount() + " requests, " + standIn.getRateLimitedCount() + " rate-limited");
+            System.out.println("Deferred: " + deferred.get() + " updates over their cooldown budget");
+            System.out.println("Capture: " + TimeUnit.NANOSECONDS.toMillis(captureNanos) + "ms");
+            System.out.println(metrics);
+        } finally {
+            File[] files = themeDir.listFiles();
+            if (files != null) {
+                for (File file : files)
+                    Files.deleteIfExists(file.toPath());
+            }
+            Files.deleteIfExists(themeDir.toPath());
+        }
+    }
+
+    private static void writeTheme(File file, String name, int roles) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.println("MetaData:name:" + name);
+            writer.println("MetaData:title:" + name + " Guild");
+            writer.println("MetaData:nickname:" + name + " Bot");
+            writer.println("MetaData:parser:1");
+            for (int i = 0; i < roles; i++)
+                writer.println((StandInGuild.FIRST_ROLE_ID + i) + ":" + name + " Role " + i);
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package io.github.wheezygold7931.discordthemer.standin;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A local stand-in for the Discord REST and CDN endpoints the themer uses, for load testing without touching real guilds.
+ * Handles guild modify, role modify, nickname, self-user modify and CDN image downloads under the same paths Discord uses.
+ * Every route has its own rate-limit bucket per guild (or per user for the self-user route): requests over the limit get a 429 with
+ * the same X-RateLimit headers and retry_after body Discord sends. Every response is delayed by a configurable latency.
+ * Point clients at it with {@link StandInInterceptor}.
+ */
+public class DiscordStandIn implements AutoCloseable {
+
+    private static final Pattern GUILD = Pattern.compile("/api/v\\d+/guilds/(\\d+)");
+    private static final Pattern ROLE = Pattern.compile("/api/v\\d+/guilds/(\\d+)/roles/(\\d+)");
+    private static final Pattern NICKNAME = Pattern.compile("/api/v\\d+/guilds/(\\d+)/members/@me/nick");
+    private static final Pattern SELF_USER = Pattern.compile("/api/v\\d+/users/@me");
+    private static final Pattern CDN = Pattern.compile("/(icons|avatars)/(\\d+)/(\\w+)\\.(png|gif|jpg|webp)");
+    private static final Pattern NAME = Pattern.compile("\"(name|nick|username)\"\\s*:\\s*\"((?:[^\"\\\\]|\\\\.)*)\"");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final long latencyMillis;
+    private final Map<String, RateLimit> routeLimits = new ConcurrentHashMap<>();
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+    private final Map<String, String> names = new ConcurrentHashMap<>();
+    private final byte[] image;
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong rateLimited = new AtomicLong();
+
+    /**
+     * @param latencyMillis The delay added to every response.
+     */
+    public DiscordStandIn(long latencyMillis) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.image = png();
+        //Roughly Discord's limits for these routes, override them with setRateLimit
+        routeLimits.put("guild", new RateLimit(5, 5000));
+        routeLimits.put("role", new RateLimit(10, 10000));
+        routeLimits.put("nickname", new RateLimit(1, 1000));
+        routeLimits.put("user", new RateLimit(2, 3600000));
+        routeLimits.put("cdn", new RateLimit(Integer.MAX_VALUE, 1000));
+
+        executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "discord-stand-in");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 256);
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    /**
+     * Overrides the rate limit of a route.
+     * @param route One of "guild", "role", "nickname", "user" or "cdn".
+     * @param limit The amount of requests per window and guild.
+     * @param windowMillis The length of the window.
+     */
+    public DiscordStandIn setRateLimit(String route, int limit, long windowMillis) {
+        routeLimits.put(route, new RateLimit(limit, windowMillis));
+        return this;
+    }
+
+    public DiscordStandIn start() {
+        server.start();
+        return this;
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return The base url of the stand-in, such as http://127.0.0.1:1234
+     */
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + getPort();
+    }
+
+    public long getRequestCount() {
+        return requests.get();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimited.get();
+    }
+
+    /**
+     * @param key "guild:ID", "role:ID", "nickname:GUILD_ID" or "user"
+     * @return The last name the stand-in received for the key, null if it was never modified.
+     */
+    public String getName(String key) {
+        return names.get(key);
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+        try {
+            if (latencyMillis > 0)
+                Thread.sleep(latencyMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        String body = read(exchange.getRequestBody());
+        Matcher matcher;
+
+        if (method.equals("GET") && (matcher = CDN.matcher(path)).matches()) {
+            if (limited(exchange, "cdn", "cdn"))
+                return;
+            exchange.getResponseHeaders().set("Content-Type", "image/png");
+            respond(exchange, 200, image);
+        } else if (method.equals("PATCH") && (matcher = ROLE.matcher(path)).matches()) {
+            if (limited(exchange, "role", matcher.group(1)))
+                return;
+            String name = name(body);
+            if (name != null)
+                names.put("role:" + matcher.group(2), name);
+            json(exchange, 200, "{\"id\":\"" + matcher.group(2) + "\",\"name\":\"" + escape(name) + "\"}");
+        } else if (method.equals("PATCH") && (matcher = NICKNAME.matcher(path)).matches()) {
+            if (limited(exchange, "nickname", matcher.group(1)))
+                return;
+            String name = name(body);
+            if (name != null)
+                names.put("nickname:" + matcher.group(1), name);
+            json(exchange, 200, "{\"nick\":\"" + escape(name) + "\"}");
+        } else if (method.equals("PATCH") && (matcher = GUILD.matcher(path)).matches()) {
+            if (limited(exchange, "guild", matcher.group(1)))
+                return;
+            String name = name(body);
+            if (name != null)
+                names.put("guild:" + matcher.group(1), name);
+            json(exchange, 200, "{\"id\":\"" + matcher.group(1) + "\",\"name\":\"" + escape(name) + "\"}");
+        } else if (SELF_USER.matcher(path).matches()) {
+            if (method.equals("PATCH")) {
+                if (limited(exchange, "user", "@me"))
+                    return;
+                String name = name(body);
+                if (name != null)
+                    names.put("user", name);
+            }
+            json(exchange, 200, "{\"id\":\"1\",\"username\":\"Themer\",\"avatar\":\"avatar\"}");
+        } else {
+            json(exchange, 404, "{\"message\":\"404: Not Found\",\"code\":0}");
+        }
+    }
+
+    /**
+     * Takes a request from the bucket of the route and sends a 429 if the bucket is empty.
+     * @return Returns true if the request was rate-limited and has been answered.
+     */
+    private boolean limited(HttpExchange exchange, String route, String majorParameter) throws IOException {
+        RateLimit limit = routeLimits.get(route);
+        Bucket bucket = buckets.computeIfAbsent(route + ":" + majorParameter, key -> new Bucket());
+        long now = System.currentTimeMillis();
+        int remaining;
+        long resetAfter;
+        synchronized (bucket) {
+            if (now >= bucket.resetAt) {
+                bucket.resetAt = now + limit.windowMillis;
+                bucket.used = 0;
+            }
+            resetAfter = bucket.resetAt - now;
+            remaining = limit.limit - bucket.used;
+            if (remaining > 0)
+                bucket.used++;
+        }
+
+        exchange.getResponseHeaders().set("X-RateLimit-Bucket", route);
+        exchange.getResponseHeaders().set("X-RateLimit-Limit", String.valueOf(limit.limit));
+        exchange.getResponseHeaders().set("X-RateLimit-Remaining", String.valueOf(Math.max(remaining - 1, 0)));
+        exchange.getResponseHeaders().set("X-RateLimit-Reset", String.format("%.3f", (now + resetAfter) / 1000d));
+        exchange.getResponseHeaders().set("X-RateLimit-Reset-After", String.format("%.3f", resetAfter / 1000d));
+        if (remaining > 0)
+            return false;
+
+        rateLimited.incrementAndGet();
+        exchange.getResponseHeaders().set("Retry-After", String.valueOf((resetAfter + 999) / 1000));
+        json(exchange, 429, "{\"message\":\"You are being rate limited.\",\"retry_after\":" + resetAfter + ",\"global\":false}");
+        return true;
+    }
+
+    private static String name(String body) {
+        Matcher matcher = NAME.matcher(body);
+        return matcher.find() ? matcher.group(2).replace("\\\"", "\"").replace("\\\\", "\\") : null;
+    }
+
+    private static String escape(String value) {
+        return value == null ? "" : value.replace("\\", "\\\\").replace("\"", "\\\"");
+    }
+
+    private static void json(HttpExchange exchange, int status, String json) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        respond(exchange, status, json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) != -1)
+            out.write(buffer, 0, read);
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    private static byte[] png() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(128, 128, BufferedImage.TYPE_INT_ARGB), "png", out);
+        return out.toByteArray();
+    }
+
+    private static class RateLimit {
+        private final int limit;
+        private final long windowMillis;
+
+        private RateLimit(int limit, long windowMillis) {
+            this.limit = limit;
+            this.windowMillis = windowMillis;
+        }
+    }
+
+    private static class Bucket {
+        private long resetAt = 0;
+        private int used = 0;
+    }
+}
@@ -0,0 +1,253 @@
+package io.github.wheezygold7931.discordthemer.standin;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Icon;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.SelfUser;
+import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.requests.restaction.AuditableRestAction;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link Guild} (with its roles, self member and JDA) whose managers send their changes to a {@link DiscordStandIn}.
+ * The entities are {@link Proxy}s over the JDA interfaces since a real JDA instance needs a gateway connection to log in.
+ * Successful changes are written back into the entities, standing in for the gateway events which update JDA's cache.
+ */
+public class StandInGuild {
+
+    public static final long FIRST_ROLE_ID = 200000000000000000L;
+
+    private static final Object NO_ANSWER = new Object();
+    private static final Object SELF = new Object();
+
+    private final long id;
+    private final String cdnBaseUrl;
+    private final StandInRequester requester;
+    private final Map<String, String> state = new ConcurrentHashMap<>();
+    private final Map<Long, Role> roles = new LinkedHashMap<>();
+    private final Guild guild;
+    private final JDA jda;
+    private final Member self;
+
+    /**
+     * @param id The id of the guild.
+     * @param roleCount The amount of roles, named "Role 0", "Role 1", ... with ids starting at {@link StandInGuild#FIRST_ROLE_ID}.
+     */
+    public StandInGuild(long id, int roleCount, DiscordStandIn standIn, StandInRequester requester) {
+        this.id = id;
+        this.cdnBaseUrl = standIn.getBaseUrl();
+        this.requester = requester;
+        state.put("name", "Guild " + id);
+        state.put("icon", "icon");
+        state.put("avatar", "avatar");
+        for (int i = 0; i < roleCount; i++) {
+            long roleId = FIRST_ROLE_ID + i;
+            state.put("role:" + roleId, "Role " + i);
+            roles.put(roleId, role(roleId));
+        }
+
+        SelfUser selfUser = stub(SelfUser.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return "1";
+                case "getIdLong":
+                    return 1L;
+                case "getAvatarId":
+                    return state.get("avatar");
+                case "getAvatarUrl":
+                    return cdnBaseUrl + "/avatars/1/" + state.get("avatar") + ".png";
+                case "getManager":
+                    return manager(net.dv8tion.jda.api.managers.AccountManager.class, "user:1", "/users/@me", "avatar");
+                default:
+                    return NO_ANSWER;
+            }
+        });
+        jda = stub(JDA.class, (method, args) -> {
+            switch (method) {
+                case "getSelfUser":
+                    return selfUser;
+                case "getGuildById":
+                    return guild();
+                default:
+                    return NO_ANSWER;
+            }
+        });
+        self = stub(Member.class, (method, args) -> {
+            switch (method) {
+                case "hasPermission":
+                case "canInteract":
+                    return true;
+                case "getNickname":
+                    return state.get("nickname");
+                case "getUser":
+                    return selfUser;
+                case "getGuild":
+                    return guild();
+                default:
+                    return NO_ANSWER;
+            }
+        });
+        guild = stub(Guild.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return Long.toString(id);
+                case "getIdLong":
+                    return id;
+                case "getName":
+                    return state.get("name");
+                case "getIconId":
+                    return state.get("icon");
+                case "getIconUrl":
+                    return cdnBaseUrl + "/icons/" + id + "/" + state.get("icon") + ".png";
+                case "getRoles":
+                    return new ArrayList<>(roles.values());
+                case "getRoleById":
+                    return roles.get(args[0] instanceof String ? Long.parseLong((String) args[0]) : (Long) args[0]);
+                case "getSelfMember":
+                case "getMemberById":
+                    return self;
+                case "getJDA":
+                    return jda;
+                case "getManager":
+                    return manager(net.dv8tion.jda.api.managers.GuildManager.class, "guild:" + id, "/guilds/" + id, null);
+                case "modifyNickname":
+                    String nickname = (String) args[1];
+                    return action(AuditableRestAction.class, "nickname:" + id, "/guilds/" + id + "/members/@me/nick", "{\"nick\":" + quote(nickname) + "}",
+                            () -> state.put("nickname", nickname));
+                default:
+                    return NO_ANSWER;
+            }
+        });
+    }
+
+    public Guild getGuild() {
+        return guild;
+    }
+
+    private Guild guild() {
+        return guild;
+    }
+
+    private Role role(long roleId) {
+        return stub(Role.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return Long.toString(roleId);
+                case "getIdLong":
+                    return roleId;
+                case "getName":
+                    return state.get("role:" + roleId);
+                case "getGuild":
+                    return guild();
+                case "getManager":
+                    return manager(net.dv8tion.jda.api.managers.RoleManager.class, "role:" + id, "/guilds/" + id + "/roles/" + roleId, "role:" + roleId);
+                default:
+                    return NO_ANSWER;
+            }
+        });
+    }
+
+    /**
+     * Creates a manager whose setters collect a JSON body, submitting it sends one PATCH to the path.
+     * @param nameKey The state key a successful setName updates, null for the guild name.
+     */
+    private <T> T manager(Class<T> type, String bucket, String path, String nameKey) {
+        Map<String, String> fields = new LinkedHashMap<>();
+        return stub(type, (method, args) -> {
+            switch (method) {
+                case "setName":
+                    fields.put("name", quote((String) args[0]));
+                    return SELF;
+                case "setIcon":
+                case "setAvatar":
+                    fields.put(method.equals("setIcon") ? "icon" : "avatar", quote(args[0] == null ? null : ((Icon) args[0]).getEncoding()));
+                    return SELF;
+                case "submit":
+                    StringBuilder json = new StringBuilder("{");
+                    for (Map.Entry<String, String> field : fields.entrySet())
+                        json.append(json.length() == 1 ? "" : ",").append('"').append(field.getKey()).append("\":").append(field.getValue());
+                    json.append('}');
+                    String name = fields.containsKey("name") ? unquote(fields.get("name")) : null;
+                    boolean image = fields.containsKey("icon") || fields.containsKey("avatar");
+                    return requester.patch(bucket, path, json.toString()).thenRun(() -> {
+                        if (name != null)
+                            state.put(nameKey == null ? "name" : nameKey, name);
+                        if (image)
+                            state.put(fields.containsKey("icon") ? "icon" : "avatar", Long.toHexString(System.nanoTime()));
+                    });
+                default:
+                    return NO_ANSWER;
+            }
+        });
+    }
+
+    private <T> T action(Class<T> type, String bucket, String path, String json, Runnable onSuccess) {
+        return stub(type, (method, args) -> method.equals("submit") ? requester.patch(bucket, path, json).thenRun(onSuccess) : NO_ANSWER);
+    }
+
+    private static String quote(String value) {
+        return value == null ? "null" : "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+    }
+
+    private static String unquote(String json) {
+        return json.equals("null") ? null : json.substring(1, json.length() - 1).replace("\\\"", "\"").replace("\\\\", "\\");
+    }
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    /**
+     * Creates a proxy of a JDA interface. queue and complete are built on submit like in JDA, methods without an answer return the default value.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(StandInGuild.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object result = answer.answer(method.getName(), args);
+            if (result == SELF)
+                return proxy;
+            if (result != NO_ANSWER)
+                return result;
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "StandIn";
+                case "queue":
+                    CompletableFuture<Object> future = ((RestAction<Object>) proxy).submit();
+                    if (args != null && args.length > 0 && args[0] != null)
+                        future.thenAccept((java.util.function.Consumer<Object>) args[0]);
+                    if (args != null && args.length > 1 && args[1] != null)
+                        future.exceptionally(error -> {
+                            ((java.util.function.Consumer<Throwable>) args[1]).accept(error);
+                            return null;
+                        });
+                    return null;
+                case "complete":
+                    return ((RestAction<Object>) proxy).submit().join();
+                case "reason":
+                    return proxy;
+                default:
+                    break;
+            }
+            Class<?> returnType = method.getReturnType();
+            if (returnType == boolean.class)
+                return false;
+            if (returnType == int.class)
+                return 0;
+            if (returnType == long.class)
+                return 0L;
+            return null;
+        });
+    }
+}
@@ -0,0 +1,39 @@
+package io.github.wheezygold7931.discordthemer.standin;
+
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+
+/**
+ * Rewrites requests to Discord's REST and CDN hosts so they go to a {@link DiscordStandIn} instead, the path and query are kept as they are.
+ * Add it to the OkHttpClient.Builder handed to JDABuilder#setHttpClientBuilder so JDA's REST requests never leave the machine.
+ */
+public class StandInInterceptor implements Interceptor {
+
+    private final HttpUrl standIn;
+
+    public StandInInterceptor(DiscordStandIn standIn) {
+        this.standIn = HttpUrl.get(standIn.getBaseUrl());
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        if (!isDiscord(request.url().host()))
+            return chain.proceed(request);
+        HttpUrl url = request.url().newBuilder()
+                .scheme(standIn.scheme())
+                .host(standIn.host())
+                .port(standIn.port())
+                .build();
+        return chain.proceed(request.newBuilder().url(url).build());
+    }
+
+    private static boolean isDiscord(String host) {
+        return host.equals("discord.com") || host.equals("discordapp.com") || host.endsWith(".discord.com")
+                || host.endsWith(".discordapp.com") || host.endsWith(".discordapp.net");
+    }
+}
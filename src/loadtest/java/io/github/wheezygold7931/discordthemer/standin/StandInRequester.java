@@ -0,0 +1,132 @@
+package io.github.wheezygold7931.discordthemer.standin;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends REST requests the way JDA's requester does: requests of the same bucket are sent one after the other,
+ * an exhausted bucket is waited out using the X-RateLimit headers and 429 responses are retried after retry_after.
+ * Requests go to Discord's hosts and are redirected to the stand-in by {@link StandInInterceptor}.
+ */
+public class StandInRequester implements AutoCloseable {
+
+    static final String API = "https://discord.com/api/v7";
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    private final OkHttpClient client;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "stand-in-requester");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public StandInRequester(DiscordStandIn standIn) {
+        this.client = new OkHttpClient.Builder()
+                .addInterceptor(new StandInInterceptor(standIn))
+                .build();
+        client.dispatcher().setMaxRequests(512);
+        client.dispatcher().setMaxRequestsPerHost(512);
+    }
+
+    /**
+     * Queues a PATCH request behind the other requests of its bucket.
+     * Cancelling the returned future before the request was sent drops it, like cancelling a queued RestAction in JDA.
+     * @param bucket The rate-limit bucket, such as "role:GUILD_ID".
+     * @param path The path below the API base, such as "/guilds/ID".
+     * @param json The request body.
+     */
+    public CompletableFuture<Void> patch(String bucket, String path, String json) {
+        Request request = new Request.Builder()
+                .url(API + path)
+                .header("User-Agent", "DiscordBot (discord-themer load test)")
+                .patch(RequestBody.create(JSON, json))
+                .build();
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        Bucket state = buckets.computeIfAbsent(bucket, key -> new Bucket());
+        synchronized (state) {
+            state.tail = state.tail.handle((success, failure) -> null).thenCompose(ignored -> {
+                if (result.isDone())
+                    return CompletableFuture.completedFuture(null);
+                CompletableFuture<Void> sent = new CompletableFuture<>();
+                send(state, request, sent);
+                return sent.whenComplete((success, failure) -> {
+                    if (failure == null)
+                        result.complete(null);
+                    else
+                        result.completeExceptionally(failure);
+                });
+            });
+        }
+        return result;
+    }
+
+    private void send(Bucket bucket, Request request, CompletableFuture<Void> sent) {
+        long wait = bucket.blockedUntil - System.currentTimeMillis();
+        if (wait > 0) {
+            scheduler.schedule(() -> send(bucket, request, sent), wait, TimeUnit.MILLISECONDS);
+            return;
+        }
+        client.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                sent.completeExceptionally(e);
+            }
+
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                try (Response closing = response) {
+                    String remaining = response.header("X-RateLimit-Remaining");
+                    String resetAfter = response.header("X-RateLimit-Reset-After");
+                    if (remaining != null && resetAfter != null && Integer.parseInt(remaining) == 0)
+                        bucket.blockedUntil = System.currentTimeMillis() + (long) (Double.parseDouble(resetAfter) * 1000);
+                    if (response.code() == 429) {
+                        String body = closing.body() == null ? "" : closing.body().string();
+                        long retryAfter = parseRetryAfter(body);
+                        bucket.blockedUntil = Math.max(bucket.blockedUntil, System.currentTimeMillis() + retryAfter);
+                        scheduler.schedule(() -> send(bucket, request, sent), retryAfter, TimeUnit.MILLISECONDS);
+                    } else if (response.isSuccessful()) {
+                        sent.complete(null);
+                    } else {
+                        sent.completeExceptionally(new IOException("HTTP " + response.code() + " for " + request.url()));
+                    }
+                }
+            }
+        });
+    }
+
+    private static long parseRetryAfter(String body) {
+        int start = body.indexOf("\"retry_after\":");
+        if (start == -1)
+            return 1000;
+        start += "\"retry_after\":".length();
+        int end = start;
+        while (end < body.length() && (Character.isDigit(body.charAt(end)) || body.charAt(end) == '.'))
+            end++;
+        return (long) Math.ceil(Double.parseDouble(body.substring(start, end)));
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        client.dispatcher().executorService().shutdown();
+    }
+
+    private static class Bucket {
+        private CompletableFuture<Void> tail = CompletableFuture.completedFuture(null);
+        private volatile long blockedUntil = 0;
+    }
+}
@@ -0,0 +1,137 @@
+package io.github.wheezygold7931.discordthemer;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Theme files packaged as resources, in a folder on the classpath or inside a jar.
+ * Resources cannot be listed through a class loader, so the folders and jars holding the path are listed directly.
+ */
+class ClasspathThemeSource implements ThemeSource {
+
+    private final ClassLoader classLoader;
+    private final String path;
+
+    ClasspathThemeSource(ClassLoader classLoader, String path) {
+        this.classLoader = classLoader;
+        String trimmed = path.replace('\\', '/');
+        while (trimmed.startsWith("/"))
+            trimmed = trimmed.substring(1);
+        while (trimmed.endsWith("/"))
+            trimmed = trimmed.substring(0, trimmed.length() - 1);
+        this.path = trimmed;
+    }
+
+    @Override
+    public Collection<String> getThemeFileNames() throws IOException {
+        Set<String> fileNames = new LinkedHashSet<>();
+        Enumeration<URL> roots = classLoader.getResources(path);
+        while (roots.hasMoreElements()) {
+            URL root = roots.nextElement();
+            if ("file".equals(root.getProtocol())) {
+                listFolder(root, fileNames);
+            } else if ("jar".equals(root.getProtocol())) {
+                listJar(root, fileNames);
+            } else {
+                throw new IOException("Cannot list theme resources at " + root);
+            }
+        }
+        return fileNames;
+    }
+
+    private static void listFolder(URL root, Set<String> fileNames) throws IOException {
+        File[] files;
+        try {
+            files = new File(root.toURI()).listFiles();
+        } catch (URISyntaxException | IllegalArgumentException e) {
+            throw new IOException("Cannot list theme resources at " + root, e);
+        }
+        if (files == null)
+            return;
+        for (File file : files) {
+            if (!file.isDirectory() && file.getName().endsWith(".dat"))
+                fileNames.add(file.getName());
+        }
+    }
+
+    private void listJar(URL root, Set<String> fileNames) throws IOException {
+        URLConnection connection = root.openConnection();
+        if (!(connection instanceof JarURLConnection))
+            throw new IOException("Cannot list theme resources at " + root);
+        //A cached jar file is shared with the class loader, so open an own one which can be closed
+        connection.setUseCaches(false);
+        String prefix = path.isEmpty() ? "" : path + "/";
+        try (JarFile jar = ((JarURLConnection) connection).getJarFile()) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (name.startsWith(prefix) && name.endsWith(".dat") && name.indexOf('/', prefix.length()) == -1)
+                    fileNames.add(name.substring(prefix.length()));
+            }
+        }
+    }
+
+    @CheckForNull
+    @Override
+    public ByteBuffer readTheme(String fileName) throws IOException {
+        return read(resource(fileName));
+    }
+
+    @Override
+    public boolean hasImage(String imageName) {
+        return classLoader.getResource(image(imageName)) != null;
+    }
+
+    @CheckForNull
+    @Override
+    public ByteBuffer readImage(String imageName) throws IOException {
+        return read(image(imageName));
+    }
+
+    private String resource(String name) {
+        return path.isEmpty() ? name : path + "/" + name;
+    }
+
+    /**
+     * Image names start with a slash to be relative to the theme folder, they are relative to the resource path here.
+     */
+    private String image(String imageName) {
+        String name = imageName.replace('\\', '/');
+        while (name.startsWith("/"))
+            name = name.substring(1);
+        return resource(name + ".png");
+    }
+
+    @CheckForNull
+    private ByteBuffer read(String resource) throws IOException {
+        try (InputStream in = classLoader.getResourceAsStream(resource)) {
+            if (in == null)
+                return null;
+            ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(in.available(), 1024));
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1)
+                out.write(buffer, 0, read);
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "classpath:" + path;
+    }
+}
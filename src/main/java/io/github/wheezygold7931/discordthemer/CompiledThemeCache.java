@@ -0,0 +1,274 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.entities.Guild;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * An on-disk cache of parsed {@link ThemeToken}s so unchanged theme files do not have to go through the parser on every start.
+ * Entries are keyed by the theme file's path, size, modification time and SHA-256 hash of its content.
+ * The warnings the parser reported are stored with the theme and replayed on every lookup, the images of a cached theme are checked again by {@link ThemeParser#checkImages(File, ThemeToken, DiscordThemerLogger)}.
+ * Only the entries which were used or stored since the cache was loaded are written back by {@link CompiledThemeCache#save()}, so deleted themes drop out of the cache.
+ */
+class CompiledThemeCache {
+
+    private static final int MAGIC = 0x44544331; // "DTC1"
+    private static final int FORMAT_VERSION = 4;
+
+    private final File cacheFile;
+    private final long guildId;
+    private final DiscordThemerLogger logger;
+
+    private final Map<String, Entry> loaded = new ConcurrentHashMap<>();
+    private final Map<String, Entry> used = new ConcurrentHashMap<>();
+
+    private CompiledThemeCache(File cacheFile, long guildId, DiscordThemerLogger logger) {
+        this.cacheFile = cacheFile;
+        this.guildId = guildId;
+        this.logger = logger;
+    }
+
+    /**
+     * Reads the cache file, a missing, outdated or corrupt cache file results in an empty cache.
+     * @param cacheFile The cache file.
+     * @param guild The guild the cached themes were validated against, caches of other guilds are ignored. Null for a catalog shared by many guilds.
+     * @param logger The logger to report problems to.
+     * @return The loaded cache.
+     */
+    static CompiledThemeCache load(File cacheFile, @Nullable Guild guild, DiscordThemerLogger logger) {
+        CompiledThemeCache cache = new CompiledThemeCache(cacheFile, guild == null ? 0 : guild.getIdLong(), logger);
+        if (!cacheFile.isFile())
+            return cache;
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || in.readLong() != cache.guildId) {
+                logger.debug("Compiled theme cache is outdated or belongs to another guild, ignoring it.");
+                return cache;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Entry entry = Entry.read(in);
+                cache.loaded.put(entry.path, entry);
+            }
+            logger.debug(() -> "Loaded " + count + " themes from the compiled theme cache.");
+        } catch (IOException e) {
+            logger.warn("Could not read the compiled theme cache, themes will be parsed from scratch: " + e.getMessage());
+            cache.loaded.clear();
+        }
+        return cache;
+    }
+
+    /**
+     * Looks up the token of an unchanged theme file.
+     * Roles which no longer exist in the guild, or skipped roles which exist now, cause a miss so the parser can handle them.
+     * @param file The theme file.
+     * @param content The current content of the theme file.
+     * @param guild The guild the roles should exist in, or null if roles are not validated.
+     * @param invalidRoleIds If not null and the file is cached, the ids of roles the parser skipped are added to it.
+     * @param fileLogger If the file is cached, the warnings the parser reported are replayed to it.
+     * @return Returns a fresh token or null if the file has changed or is not cached.
+     */
+    @CheckForNull
+    ThemeToken lookup(File file, byte[] content, @Nullable Guild guild, @Nullable Collection<String> invalidRoleIds, DiscordThemerLogger fileLogger) {
+        String path = file.getAbsolutePath();
+        Entry entry = loaded.get(path);
+        if (entry == null || entry.size != content.length || entry.lastModified != file.lastModified() || !Arrays.equals(entry.hash, hash(content)))
+            return null;
+
+        if (guild != null) {
+            for (long roleId : entry.roleIds) {
+                if (guild.getRoleById(roleId) == null)
+                    return null;
+            }
+            for (String roleId : entry.invalidRoleIds) {
+                if (guild.getRoleById(roleId) != null)
+                    return null;
+            }
+        }
+
+        used.put(path, entry);
+        if (invalidRoleIds != null)
+            invalidRoleIds.addAll(entry.invalidRoleIds);
+        for (String warning : entry.warnings)
+            fileLogger.replay(warning);
+        return entry.toToken();
+    }
+
+    /**
+     * Stores a freshly parsed token.
+     * @param file The theme file.
+     * @param content The content the token was parsed from.
+     * @param token The parsed token.
+     * @param invalidRoleIds The ids of roles the parser skipped because they were not in the guild.
+     * @param warnings The warnings and errors the parser reported, as returned by {@link DiscordThemerLogger#getProblems()}.
+     */
+    void store(File file, byte[] content, ThemeToken token, List<String> invalidRoleIds, List<String> warnings) {
+        Entry entry = new Entry(file.getAbsolutePath(), content.length, file.lastModified(), hash(content), token.getThemeName(), token.getMetaData(), roleIdsOf(token), roleNamesOf(token), invalidRoleIds, warnings);
+        used.put(entry.path, entry);
+    }
+
+    /**
+     * Writes the used entries back to the cache file, replacing it atomically.
+     */
+    void save() {
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                out.writeLong(guildId);
+                out.writeInt(used.size());
+                for (Entry entry : used.values())
+                    entry.write(out);
+            }
+            Files.move(tempFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.debug(() -> "Saved " + used.size() + " themes to the compiled theme cache.");
+        } catch (IOException e) {
+            logger.warn("Could not write the compiled theme cache: " + e.getMessage());
+        }
+    }
+
+    private static long[] roleIdsOf(ThemeToken token) {
+        long[] roleIds = new long[token.getRoleCount()];
+        for (int i = 0; i < roleIds.length; i++)
+            roleIds[i] = token.getRoleId(i);
+        return roleIds;
+    }
+
+    private static String[] roleNamesOf(ThemeToken token) {
+        String[] roleNames = new String[token.getRoleCount()];
+        for (int i = 0; i < roleNames.length; i++)
+            roleNames[i] = token.getRoleName(i);
+        return roleNames;
+    }
+
+    static byte[] hash(byte[] content) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(content);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static class Entry {
+        private final String path;
+        private final long size;
+        private final long lastModified;
+        private final byte[] hash;
+        private final String themeName;
+        private final Map<String, String> metaData;
+        private final long[] roleIds;
+        private final String[] roleNames;
+        private final List<String> invalidRoleIds;
+        private final List<String> warnings;
+
+        private Entry(String path, long size, long lastModified, byte[] hash, String themeName, Map<String, String> metaData, long[] roleIds, String[] roleNames, List<String> invalidRoleIds, List<String> warnings) {
+            this.path = path;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.hash = hash;
+            this.themeName = themeName;
+            this.metaData = metaData;
+            this.roleIds = roleIds;
+            this.roleNames = roleNames;
+            this.invalidRoleIds = invalidRoleIds;
+            this.warnings = warnings;
+        }
+
+        private ThemeToken toToken() {
+            ThemeToken token = new ThemeToken(themeName);
+            for (Map.Entry<String, String> meta : metaData.entrySet())
+                token.addMetaData(meta.getKey(), meta.getValue());
+            for (int i = 0; i < roleIds.length; i++)
+                token.addData(roleIds[i], roleNames[i]);
+            return token.finalizeToken();
+        }
+
+        private void write(DataOutputStream out) throws IOException {
+            out.writeUTF(path);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.write(hash);
+            out.writeUTF(themeName);
+            writeMap(out, metaData);
+            out.writeInt(roleIds.length);
+            for (int i = 0; i < roleIds.length; i++) {
+                out.writeLong(roleIds[i]);
+                out.writeUTF(roleNames[i]);
+            }
+            writeList(out, invalidRoleIds);
+            writeList(out, warnings);
+        }
+
+        private static Entry read(DataInputStream in) throws IOException {
+            String path = in.readUTF();
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            byte[] hash = new byte[32];
+            in.readFully(hash);
+            String themeName = in.readUTF();
+            Map<String, String> metaData = readMap(in);
+            int roleCount = in.readInt();
+            long[] roleIds = new long[roleCount];
+            String[] roleNames = new String[roleCount];
+            for (int i = 0; i < roleCount; i++) {
+                roleIds[i] = in.readLong();
+                roleNames[i] = in.readUTF();
+            }
+            List<String> invalidRoleIds = readList(in);
+            List<String> warnings = readList(in);
+            return new Entry(path, size, lastModified, hash, themeName, metaData, roleIds, roleNames, invalidRoleIds, warnings);
+        }
+
+        private static void writeList(DataOutputStream out, List<String> list) throws IOException {
+            out.writeInt(list.size());
+            for (String value : list)
+                out.writeUTF(value);
+        }
+
+        private static List<String> readList(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            List<String> list = new ArrayList<>(size);
+            for (int i = 0; i < size; i++)
+                list.add(in.readUTF());
+            return list;
+        }
+
+        private static void writeMap(DataOutputStream out, Map<String, String> map) throws IOException {
+            out.writeInt(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeUTF(entry.getValue());
+            }
+        }
+
+        private static Map<String, String> readMap(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            Map<String, String> map = new LinkedHashMap<>(size * 2);
+            for (int i = 0; i < size; i++)
+                map.put(in.readUTF(), in.readUTF());
+            return map;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package io.github.wheezygold7931.discordthemer;
+
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * A five field cron expression: minute (0-59), hour (0-23), day of month (1-31), month (1-12) and day of week (0-7, 0 and 7 are Sunday).
+ * Every field accepts '*', single values, ranges (1-5), lists (1,15) and steps (*&#47;15 or 8-18/2).
+ * Like cron, a time matches if both day fields match, or either of them when both are restricted.
+ */
+class CronExpression {
+
+    //Four years cover every valid combination, including February 29th
+    private static final int MAX_DAYS_SEARCHED = 366 * 4;
+
+    private final String expression;
+    private final long minutes;
+    private final long hours;
+    private final long daysOfMonth;
+    private final long months;
+    private final long daysOfWeek;
+    private final boolean daysOfMonthRestricted;
+    private final boolean daysOfWeekRestricted;
+
+    /**
+     * @param expression The cron expression.
+     * @throws IllegalArgumentException Throws when the expression is invalid.
+     */
+    CronExpression(String expression) throws IllegalArgumentException {
+        String[] fields = expression.trim().split("\\s+");
+        if (fields.length != 5)
+            throw new IllegalArgumentException("Cron expressions need 5 fields (minute hour day-of-month month day-of-week): " + expression);
+        this.expression = expression;
+        this.minutes = parseField(fields[0], 0, 59, expression);
+        this.hours = parseField(fields[1], 0, 23, expression);
+        this.daysOfMonth = parseField(fields[2], 1, 31, expression);
+        this.months = parseField(fields[3], 1, 12, expression);
+        long dow = parseField(fields[4], 0, 7, expression);
+        //Sunday can be written as 0 or 7
+        this.daysOfWeek = (dow & (1L << 7)) != 0 ? dow | 1L : dow;
+        this.daysOfMonthRestricted = !fields[2].equals("*");
+        this.daysOfWeekRestricted = !fields[4].equals("*");
+    }
+
+    /**
+     * @param after The time to search from.
+     * @return The first matching minute strictly after the given time, or null if the expression never matches (such as February 30th).
+     */
+    ZonedDateTime next(ZonedDateTime after) {
+        ZonedDateTime time = after.truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+        ZonedDateTime limit = time.plusDays(MAX_DAYS_SEARCHED);
+        while (time.isBefore(limit)) {
+            if (!matches(months, time.getMonthValue())) {
+                time = time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).plusMonths(1);
+                continue;
+            }
+            if (!matchesDay(time)) {
+                time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                continue;
+            }
+            if (!matches(hours, time.getHour())) {
+                time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+                continue;
+            }
+            if (!matches(minutes, time.getMinute())) {
+                time = time.plusMinutes(1);
+                continue;
+            }
+            return time;
+        }
+        return null;
+    }
+
+    private boolean matchesDay(ZonedDateTime time) {
+        boolean dom = matches(daysOfMonth, time.getDayOfMonth());
+        //DayOfWeek is 1 (Monday) to 7 (Sunday), cron uses 0 for Sunday
+        boolean dow = matches(daysOfWeek, time.getDayOfWeek().getValue() % 7);
+        if (daysOfMonthRestricted && daysOfWeekRestricted)
+            return dom || dow;
+        return dom && dow;
+    }
+
+    private static boolean matches(long field, int value) {
+        return (field & (1L << value)) != 0;
+    }
+
+    private static long parseField(String field, int min, int max, String expression) {
+        long bits = 0;
+        for (String part : field.split(",")) {
+            int step = 1;
+            int slash = part.indexOf('/');
+            if (slash != -1) {
+                step = parseNumber(part.substring(slash + 1), 1, max, expression);
+                part = part.substring(0, slash);
+            }
+            int start;
+            int end;
+            if (part.equals("*")) {
+                start = min;
+                end = max;
+            } else {
+                int dash = part.indexOf('-');
+                if (dash == -1) {
+                    start = parseNumber(part, min, max, expression);
+                    end = slash == -1 ? start : max;
+                } else {
+                    start = parseNumber(part.substring(0, dash), min, max, expression);
+                    end = parseNumber(part.substring(dash + 1), start, max, expression);
+                }
+            }
+            for (int value = start; value <= end; value += step)
+                bits |= 1L << value;
+        }
+        return bits;
+    }
+
+    private static int parseNumber(String number, int min, int max, String expression) {
+        try {
+            int value = Integer.parseInt(number);
+            if (value >= min && value <= max)
+                return value;
+        } catch (NumberFormatException ignored) {
+        }
+        throw new IllegalArgumentException("Invalid value '" + number + "' in cron expression: " + expression);
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+}
@@ -0,0 +1,84 @@
+package io.github.wheezygold7931.discordthemer;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * The theme files of a folder, images are resolved the same way as in a theme folder (folder path + image name + ".png").
+ */
+class DirectoryThemeSource implements ThemeSource {
+
+    private final File folder;
+
+    DirectoryThemeSource(File folder) {
+        this.folder = folder;
+    }
+
+    File getFolder() {
+        return folder;
+    }
+
+    @Override
+    public Collection<String> getThemeFileNames() {
+        List<String> fileNames = new ArrayList<>();
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (!file.isDirectory() && file.getName().endsWith(".dat"))
+                    fileNames.add(file.getName());
+            }
+        }
+        return fileNames;
+    }
+
+    @CheckForNull
+    @Override
+    public ByteBuffer readTheme(String fileName) throws IOException {
+        return read(new File(folder, fileName));
+    }
+
+    @Override
+    public boolean hasImage(String imageName) {
+        return image(imageName).isFile();
+    }
+
+    @CheckForNull
+    @Override
+    public ByteBuffer readImage(String imageName) throws IOException {
+        return read(image(imageName));
+    }
+
+    @Override
+    public long getImageVersion(String imageName) {
+        File image = image(imageName);
+        return image.lastModified() * 31 + image.length();
+    }
+
+    private File image(String imageName) {
+        return new File(folder.getPath() + imageName + ".png");
+    }
+
+    @CheckForNull
+    private static ByteBuffer read(File file) throws IOException {
+        if (!file.isFile())
+            return null;
+        try {
+            return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        } catch (NoSuchFileException e) {
+            //Deleted since the check above
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return folder.getAbsolutePath();
+    }
+}
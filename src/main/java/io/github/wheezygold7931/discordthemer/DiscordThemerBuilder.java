@@ -1,11 +1,21 @@
 package io.github.wheezygold7931.discordthemer;
 
+import io.github.wheezygold7931.discordthemer.apply.ActionTarget;
+import io.github.wheezygold7931.discordthemer.apply.CooldownTracker;
+import io.github.wheezygold7931.discordthemer.apply.IconCache;
+import io.github.wheezygold7931.discordthemer.metrics.ThemerListener;
 import io.github.wheezygold7931.discordthemer.util.ActionMode;
 import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.sharding.ShardManager;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * The builder for a Discord-Themer instance.
@@ -14,16 +24,33 @@ import java.io.File;
 public class DiscordThemerBuilder {
 
     private final JDA jda;
+    private final ShardManager shardManager;
     private Guild guild;
     private File file;
+    private File bundleFile = null;
+    private ThemeSource themeSource = null;
 
     private boolean debugMode = false;
     private ActionMode actionMode = ActionMode.QUEUE;
+    private int maxActionsInFlight = 4;
+    private int snapshotLimit = 0;
+    private long iconCacheBytes = 8 * 1024 * 1024;
+    private int loadThreads = Runtime.getRuntime().availableProcessors();
+    private Executor loadExecutor = null;
+    private File compiledCacheFile = null;
+    private int maxLoadedThemes = 0;
+    private boolean optimizeImages = false;
+    private int maxImageDimension = 1024;
+    private int maxImageBytes = 1024 * 1024;
+    private final CooldownTracker cooldowns = CooldownTracker.unlimited();
+    private boolean watchThemeFolder = false;
+    private final List<ThemerListener> listeners = new ArrayList<>();
 
     private String logPrefix = "[discord-themer]";
     private boolean logDisplayingInfo = true;
     private boolean logDisplayingWarnings = false;
     private boolean logDisplayingErrors = true;
+    private boolean logToSlf4j = false;
 
 
     /**
@@ -34,6 +61,18 @@ public class DiscordThemerBuilder {
         if (jda == null)
             throw new IllegalArgumentException("JDA cannot be null");
         this.jda = jda;
+        this.shardManager = null;
+    }
+
+    /**
+     * @param shardManager Your ShardManager Instance for the Themer
+     * @throws IllegalArgumentException Throws when the ShardManager is null.
+     */
+    public DiscordThemerBuilder(ShardManager shardManager) throws IllegalArgumentException {
+        if (shardManager == null)
+            throw new IllegalArgumentException("ShardManager cannot be null");
+        this.jda = null;
+        this.shardManager = shardManager;
     }
 
     /**
@@ -42,7 +81,7 @@ public class DiscordThemerBuilder {
      * @throws IllegalArgumentException Throws if the guild does not exist.
      */
     public DiscordThemerBuilder setGuild(String guildId) throws IllegalArgumentException {
-        return setGuild(jda.getGuildById(guildId));
+        return setGuild(shardManager != null ? shardManager.getGuildById(guildId) : jda.getGuildById(guildId));
     }
 
     /**
@@ -80,6 +119,34 @@ public class DiscordThemerBuilder {
         throw new IllegalArgumentException("Invalid Theme Directory");
     }
 
+    /**
+     * Sets a theme bundle to load themes from, see {@link ThemeBundle#pack(File, File)}.
+     * Theme files in the theme folder are loaded as well and replace bundled themes of the same name. When no theme folder is set, the folder of the bundle is used.
+     * @param bundleFile The bundle file.
+     * @throws IllegalArgumentException Throws when the file does not exist.
+     */
+    public DiscordThemerBuilder setThemeBundle(File bundleFile) throws IllegalArgumentException {
+        if (bundleFile.isFile()) {
+            this.bundleFile = bundleFile;
+            return this;
+        }
+        throw new IllegalArgumentException("Invalid Theme Bundle");
+    }
+
+    /**
+     * Sets a source to load themes from, such as {@link ThemeSource#classpath(ClassLoader, String)} or an {@link InMemoryThemeSource}.
+     * Theme files in the theme folder are loaded as well and replace the source's themes of the same name, a bundle set with {@link DiscordThemerBuilder#setThemeBundle(File)} comes after the source.
+     * Captured themes and snapshots are written to the theme folder, which defaults to "themes" when neither a folder nor a bundle is set.
+     * @param themeSource The source of the themes.
+     * @throws IllegalArgumentException Throws when the source is null.
+     */
+    public DiscordThemerBuilder setThemeSource(ThemeSource themeSource) throws IllegalArgumentException {
+        if (themeSource == null)
+            throw new IllegalArgumentException("Theme source cannot be null");
+        this.themeSource = themeSource;
+        return this;
+    }
+
     /**
      * Sets the prefix for any console output.
      * @param prefix The new prefix
@@ -121,6 +188,15 @@ public class DiscordThemerBuilder {
         return this;
     }
 
+    /**
+     * Sets if console output should be handed to SLF4J instead of being printed, the log display settings above still apply.
+     * Messages are logged to the "io.github.wheezygold7931.discordthemer" logger.
+     */
+    public DiscordThemerBuilder setLogToSlf4j(boolean logToSlf4j) {
+        this.logToSlf4j = logToSlf4j;
+        return this;
+    }
+
     /**
      * Sets the action mode to use.
      * @param actionMode The target action mode.
@@ -130,14 +206,216 @@ public class DiscordThemerBuilder {
         return this;
     }
 
+    /**
+     * Sets how many actions may be running at once when using {@link ActionMode#ASYNC}.
+     * @param maxActionsInFlight The maximum amount of actions in flight.
+     * @throws IllegalArgumentException Throws when the amount is less than 1.
+     */
+    public DiscordThemerBuilder setMaxActionsInFlight(int maxActionsInFlight) throws IllegalArgumentException {
+        if (maxActionsInFlight < 1)
+            throw new IllegalArgumentException("At least one action must be allowed in flight");
+        this.maxActionsInFlight = maxActionsInFlight;
+        return this;
+    }
+
+    /**
+     * Sets how many bytes of server icons and avatars are kept encoded in memory between theme switches.
+     * Defaults to 8 MiB, 0 disables the cache.
+     * @param iconCacheBytes The maximum total size of the cached images.
+     * @throws IllegalArgumentException Throws when the size is negative.
+     */
+    public DiscordThemerBuilder setIconCacheSize(long iconCacheBytes) throws IllegalArgumentException {
+        if (iconCacheBytes < 0)
+            throw new IllegalArgumentException("Icon cache size cannot be negative");
+        this.iconCacheBytes = iconCacheBytes;
+        return this;
+    }
+
+    /**
+     * Sets how many snapshots of each guild are kept for {@link DiscordThemer#rollback()}, a snapshot is taken before every theme switch.
+     * Defaults to 0, which disables snapshots. Snapshots are kept in the "snapshots" folder of the theme folder, together with a copy of every icon and avatar they need.
+     * @param snapshotLimit The maximum amount of snapshots per guild.
+     * @throws IllegalArgumentException Throws when the limit is negative.
+     */
+    public DiscordThemerBuilder setSnapshotLimit(int snapshotLimit) throws IllegalArgumentException {
+        if (snapshotLimit < 0)
+            throw new IllegalArgumentException("Snapshot limit cannot be negative");
+        this.snapshotLimit = snapshotLimit;
+        return this;
+    }
+
+    /**
+     * Sets how many threads are used to load the theme folder, 1 loads every theme on the thread calling {@link DiscordThemerBuilder#build()}.
+     * Defaults to the amount of available processors.
+     * @param loadThreads The amount of loader threads.
+     * @throws IllegalArgumentException Throws when the amount is less than 1.
+     */
+    public DiscordThemerBuilder setLoadThreads(int loadThreads) throws IllegalArgumentException {
+        if (loadThreads < 1)
+            throw new IllegalArgumentException("At least one loader thread is required");
+        this.loadThreads = loadThreads;
+        return this;
+    }
+
+    /**
+     * Sets the executor used to load the theme folder, such as {@link java.util.concurrent.ForkJoinPool#commonPool()}.
+     * This overrides {@link DiscordThemerBuilder#setLoadThreads(int)}, the executor is not shut down by the themer.
+     * @param loadExecutor The executor to load themes on.
+     */
+    public DiscordThemerBuilder setLoadExecutor(Executor loadExecutor) {
+        this.loadExecutor = loadExecutor;
+        return this;
+    }
+
+    /**
+     * Enables the compiled theme cache, unchanged theme files are loaded from this file instead of being parsed again on the next start.
+     * @param cacheFile The file to keep the compiled themes in; It will be created if it does not exist.
+     * @throws IllegalArgumentException Throws when the path is a directory.
+     */
+    public DiscordThemerBuilder setCompiledCacheFile(File cacheFile) throws IllegalArgumentException {
+        if (cacheFile.isDirectory())
+            throw new IllegalArgumentException("Compiled cache file cannot be a directory");
+        this.compiledCacheFile = cacheFile;
+        return this;
+    }
+
+    /**
+     * Only reads the names and display names of the themes on startup, a theme is parsed when it is first used and at most maxLoadedThemes are kept parsed.
+     * This keeps large catalogs cheap until their themes are used, the compiled theme cache is not used with lazy loading.
+     * Defaults to 0, which parses every theme on startup.
+     * @param maxLoadedThemes The maximum amount of parsed themes to keep, 0 disables lazy loading.
+     * @throws IllegalArgumentException Throws when the amount is negative.
+     */
+    public DiscordThemerBuilder setLazyLoading(int maxLoadedThemes) throws IllegalArgumentException {
+        if (maxLoadedThemes < 0)
+            throw new IllegalArgumentException("Maximum amount of loaded themes cannot be negative");
+        this.maxLoadedThemes = maxLoadedThemes;
+        return this;
+    }
+
+    /**
+     * Sets if server icons and avatars are checked, downscaled and recompressed in the background when their themes are parsed, see {@link DiscordThemerBuilder#setImageLimits(int, int)}.
+     * The results are kept in the "optimized" folder of the theme folder. Defaults to false, images are uploaded as they are.
+     */
+    public DiscordThemerBuilder setOptimizeImages(boolean optimizeImages) {
+        this.optimizeImages = optimizeImages;
+        return this;
+    }
+
+    /**
+     * Sets the limits server icons and avatars are downscaled and recompressed to, defaults to 1024x1024 pixels and 1 MiB.
+     * Images within the limits are uploaded as they are, so are gifs to keep their animation.
+     * @param maxDimension The maximum width and height in pixels.
+     * @param maxBytes The maximum size in bytes.
+     * @throws IllegalArgumentException Throws when a limit is less than 1.
+     */
+    public DiscordThemerBuilder setImageLimits(int maxDimension, int maxBytes) throws IllegalArgumentException {
+        if (maxDimension < 1 || maxBytes < 1)
+            throw new IllegalArgumentException("Image limits must be at least 1");
+        this.maxImageDimension = maxDimension;
+        this.maxImageBytes = maxBytes;
+        return this;
+    }
+
+    /**
+     * Sets how often a part of the guild may be updated, updates over budget are deferred until the budget allows them while role names still go out right away.
+     * Nothing is limited by default, 2 avatar changes per hour and 2 server icon and title changes per 10 minutes stay clear of Discord's own limits.
+     * The avatar budget is shared by every guild since the avatar belongs to the bot. See {@link DiscordThemer#getCooldowns()} for the current budgets.
+     * @param target The part of the guild to limit.
+     * @param capacity How many updates may be sent in a row, 0 removes the limit.
+     * @param refill How long it takes to get back one update.
+     * @param unit The unit of refill.
+     * @throws IllegalArgumentException Throws when the target is {@link ActionTarget#ROLE_NAME} or the budget is negative or never refills.
+     */
+    public DiscordThemerBuilder setCooldown(ActionTarget target, int capacity, long refill, TimeUnit unit) throws IllegalArgumentException {
+        cooldowns.setCooldown(target, capacity, refill, unit);
+        return this;
+    }
+
+    /**
+     * Sets if the theme folder should be watched for changes.
+     * Created, modified and deleted theme files are re-parsed and swapped in without blocking {@link DiscordThemer#setServerTheme(String)}.
+     * Use {@link DiscordThemer#shutdown()} to stop watching.
+     */
+    public DiscordThemerBuilder setWatchThemeFolder(boolean watchThemeFolder) {
+        this.watchThemeFolder = watchThemeFolder;
+        return this;
+    }
+
+    /**
+     * Adds a listener which receives the timings of parsing, theme switches and server captures, such as {@link io.github.wheezygold7931.discordthemer.metrics.ThemerMetrics}.
+     * @param listener The listener to add.
+     * @throws IllegalArgumentException Throws when the listener is null.
+     */
+    public DiscordThemerBuilder addListener(ThemerListener listener) throws IllegalArgumentException {
+        if (listener == null)
+            throw new IllegalArgumentException("Listener cannot be null");
+        listeners.add(listener);
+        return this;
+    }
+
     /**
      * Builds the themer.
      * @return The built themer.
      */
     public DiscordThemer build() {
-        if (guild != null && file != null)
-            return new DiscordThemer(jda, guild, file, actionMode, new DiscordThemerLogger(logPrefix, debugMode, logDisplayingInfo, logDisplayingWarnings, logDisplayingErrors));
+        if (guild != null && (file != null || bundleFile != null || themeSource != null)) {
+            DiscordThemerLogger logger = createLogger();
+            ThemerListener listener = ThemerListener.of(listeners);
+            ThemeCatalog catalog = new ThemeCatalog(themeFolder(), createSource(logger), guild, loadThreads, loadExecutor, compiledCacheFile, maxLoadedThemes, optimizeImages ? maxImageDimension : 0, maxImageBytes, watchThemeFolder, listener, logger);
+            return new DiscordThemer(guild.getJDA(), guild, catalog, true, new IconCache(iconCacheBytes), new CooldownTracker(cooldowns), actionMode, maxActionsInFlight, snapshotLimit, listener, logger);
+        }
         throw new IllegalStateException("All values must be set");
     }
 
+    /**
+     * Builds a themer for every guild of the JDA or ShardManager instance.
+     * The theme folder is loaded once and shared by all guilds, the guild set with {@link DiscordThemerBuilder#setGuild(Guild)} is ignored.
+     * @return The built themer.
+     */
+    public MultiGuildThemer buildMultiGuild() {
+        if (file != null || bundleFile != null || themeSource != null) {
+            DiscordThemerLogger logger = createLogger();
+            ThemerListener listener = ThemerListener.of(listeners);
+            ThemeCatalog catalog = new ThemeCatalog(themeFolder(), createSource(logger), null, loadThreads, loadExecutor, compiledCacheFile, maxLoadedThemes, optimizeImages ? maxImageDimension : 0, maxImageBytes, watchThemeFolder, listener, logger);
+            return new MultiGuildThemer(jda, shardManager, catalog, new IconCache(iconCacheBytes), new CooldownTracker(cooldowns), actionMode, maxActionsInFlight, snapshotLimit, listener, logger);
+        }
+        throw new IllegalStateException("The theme folder, bundle or source must be set");
+    }
+
+    private File themeFolder() {
+        if (file != null)
+            return file;
+        if (bundleFile != null) {
+            File parent = bundleFile.getAbsoluteFile().getParentFile();
+            return parent != null ? parent : new File(".");
+        }
+        if (themeSource instanceof DirectoryThemeSource)
+            return ((DirectoryThemeSource) themeSource).getFolder();
+        return new File("themes");
+    }
+
+    /**
+     * @return The source and the bundle as one source, null if neither is set.
+     */
+    private ThemeSource createSource(DiscordThemerLogger logger) {
+        ThemeBundle bundle = null;
+        if (bundleFile != null) {
+            try {
+                ThemeBundle opened = ThemeBundle.open(bundleFile);
+                logger.debug(() -> "Opened theme bundle " + bundleFile.getName() + " with " + opened.getThemeFileNames().size() + " themes.");
+                bundle = opened;
+            } catch (IOException e) {
+                logger.error("Could not open the theme bundle, it will not be loaded: " + e.getMessage());
+            }
+        }
+        if (themeSource != null && bundle != null)
+            return new LayeredThemeSource(themeSource, bundle);
+        return themeSource != null ? themeSource : bundle;
+    }
+
+    private DiscordThemerLogger createLogger() {
+        return new DiscordThemerLogger(logPrefix, debugMode, logDisplayingInfo, logDisplayingWarnings, logDisplayingErrors, logToSlf4j);
+    }
+
 }
@@ -0,0 +1,414 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Validates, downscales and recompresses the server icons and avatars of a source so theme switches upload small images which Discord accepts.
+ * Images are prepared on a worker pool as soon as a theme using them is parsed, see {@link ImagePipeline#prepare(ThemeToken)}.
+ * Reading an image never waits for it: while it is still being prepared, or if no theme asked for it yet (such as snapshot images), the original is returned and the image is prepared in the background.
+ * The version of an image changes once it has been prepared, so the {@link io.github.wheezygold7931.discordthemer.apply.IconCache} picks up the prepared image on its next use.
+ *
+ * <p>Images are keyed by the hash of their content, so an image replaced under the same name is prepared again even if its size and modification time did not change.
+ * Results are cached in a folder next to the themes, keyed by that hash and the limits, so unchanged images are not processed again on the next start.
+ * An empty cache file means the original image is already within the limits.
+ * On startup, cached images for other limits, cached images no theme has used for 30 days and temporary files left over from a crash are deleted.</p>
+ */
+class ImagePipeline implements ThemeSource {
+
+    //Images are not downscaled below this size to fit the byte limit
+    private static final int MIN_DIMENSION = 128;
+    private static final float[] JPEG_QUALITIES = {0.9f, 0.75f};
+    private static final Pattern CACHE_FILE = Pattern.compile("([0-9a-f]{64}-\\d+-\\d+)(.*\\.tmp)?");
+    private static final long UNUSED_MILLIS = TimeUnit.DAYS.toMillis(30);
+    //Cache files are marked as used at most once a day
+    private static final long TOUCH_MILLIS = TimeUnit.DAYS.toMillis(1);
+    //Older temporary files are left over from a crash
+    private static final long TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final ThemeSource source;
+    private final File cacheDir;
+    private final int maxDimension;
+    private final int maxBytes;
+    private final DiscordThemerLogger logger;
+    private final ExecutorService executor;
+    //Keyed by the hash of the original image
+    private final Map<String, CompletableFuture<Prepared>> jobs = new ConcurrentHashMap<>();
+    //The version and hash of every image when it was last read
+    private final Map<String, Original> originals = new ConcurrentHashMap<>();
+
+    /**
+     * @param source The source the original images are read from.
+     * @param cacheDir The folder to keep the prepared images in, it is created when needed.
+     * @param maxDimension The maximum width and height of an image.
+     * @param maxBytes The maximum size of an image.
+     * @param threads The amount of worker threads.
+     */
+    ImagePipeline(ThemeSource source, File cacheDir, int maxDimension, int maxBytes, int threads, DiscordThemerLogger logger) {
+        this.source = source;
+        this.cacheDir = cacheDir;
+        this.maxDimension = maxDimension;
+        this.maxBytes = maxBytes;
+        this.logger = logger;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "discord-themer-images");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.execute(this::prune);
+    }
+
+    /**
+     * Prepares the server icon and avatar of a theme in the background, images which are already prepared and unchanged are skipped.
+     * @param token The parsed theme.
+     */
+    void prepare(ThemeToken token) {
+        if (token.getServerIconName() != null)
+            prepare(token.getServerIconName());
+        if (token.getBotIconName() != null)
+            prepare(token.getBotIconName());
+    }
+
+    private void prepare(String imageName) {
+        try {
+            executor.execute(() -> {
+                try {
+                    long version = source.getImageVersion(imageName);
+                    ByteBuffer original = source.readImage(imageName);
+                    if (original != null)
+                        job(imageName, version, toArray(original));
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Could not prepare image " + imageName + ", it is uploaded as it is: " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //Shut down, the original is uploaded
+        }
+    }
+
+    /**
+     * Gets the job preparing an image with this content, starting it in the background if there is none.
+     * @param version The version of the image the content was read at.
+     */
+    private CompletableFuture<Prepared> job(String imageName, long version, byte[] bytes) {
+        String hash = hash(bytes);
+        originals.put(imageName, new Original(version, hash));
+        CompletableFuture<Prepared> job = jobs.get(hash);
+        if (job != null)
+            return job;
+        CompletableFuture<Prepared> created = new CompletableFuture<>();
+        job = jobs.putIfAbsent(hash, created);
+        if (job != null)
+            return job; //Another thread started a job first
+
+        try {
+            executor.execute(() -> {
+                try {
+                    created.complete(process(imageName, hash, bytes));
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Could not prepare image " + imageName + ", it is uploaded as it is: " + e);
+                    created.complete(new Prepared(null, null));
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            //Shut down, the original is uploaded
+            created.complete(new Prepared(null, null));
+        }
+        return created;
+    }
+
+    private Prepared process(String imageName, String hash, byte[] bytes) throws IOException {
+        long start = System.nanoTime();
+        File cached = new File(cacheDir, hash + "-" + maxDimension + "-" + maxBytes);
+        if (cached.isFile()) {
+            long now = System.currentTimeMillis();
+            if (now - cached.lastModified() > TOUCH_MILLIS && !cached.setLastModified(now))
+                logger.debug("Could not mark the prepared image " + imageName + " as used.");
+            return new Prepared(cached.length() == 0 ? null : cached, null);
+        }
+
+        byte[] optimized = optimize(imageName, bytes);
+        try {
+            Files.createDirectories(cacheDir.toPath());
+            Path temp = Files.createTempFile(cacheDir.toPath(), cached.getName(), ".tmp");
+            Files.write(temp, optimized == null ? new byte[0] : optimized);
+            Files.move(temp, cached.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warn("Could not cache the prepared image " + imageName + ", it will be prepared again on the next start: " + e.getMessage());
+            return new Prepared(null, optimized);
+        }
+        if (optimized != null && logger.isDebugEnabled())
+            logger.debug("Prepared image " + imageName + " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + "ms: " + bytes.length + " bytes -> " + optimized.length + " bytes");
+        return new Prepared(optimized == null ? null : cached, null);
+    }
+
+    /**
+     * Deletes cached images for other limits, cached images which have not been used for a while and temporary files left over from a crash.
+     */
+    private void prune() {
+        File[] files = cacheDir.listFiles();
+        if (files == null)
+            return;
+        String limits = "-" + maxDimension + "-" + maxBytes;
+        long now = System.currentTimeMillis();
+        int deleted = 0;
+        for (File file : files) {
+            Matcher matcher = CACHE_FILE.matcher(file.getName());
+            if (!file.isFile() || !matcher.matches())
+                continue;
+            long unused = now - file.lastModified();
+            boolean stale = matcher.group(2) != null
+                    ? unused > TEMP_MILLIS
+                    : !matcher.group(1).endsWith(limits) || unused > UNUSED_MILLIS;
+            if (!stale)
+                continue;
+            if (file.delete())
+                deleted++;
+            else
+                logger.debug("Could not delete the stale prepared image " + file.getName() + ".");
+        }
+        if (deleted > 0)
+            logger.debug("Deleted " + deleted + " stale prepared image(s).");
+    }
+
+    /**
+     * @return Returns the downscaled and recompressed image, or null if the original should be uploaded as it is.
+     */
+    @CheckForNull
+    private byte[] optimize(String imageName, byte[] bytes) throws IOException {
+        String format;
+        try (ImageInputStream in = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            format = readers.hasNext() ? readers.next().getFormatName().toLowerCase(Locale.ROOT) : "unknown";
+        }
+        if (!format.equals("png") && !format.equals("jpeg") && !format.equals("gif")) {
+            logger.error("Image " + imageName + " is not a PNG, JPEG or GIF image (" + format + "), Discord will reject it!");
+            return null;
+        }
+        BufferedImage image = ImageIO.read(new ByteArrayInputStream(bytes));
+        if (image == null) {
+            logger.error("Image " + imageName + " cannot be read, Discord will reject it!");
+            return null;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        if (width <= maxDimension && height <= maxDimension && bytes.length <= maxBytes)
+            return null;
+        if (format.equals("gif")) {
+            //Recompressing a gif drops its animation
+            logger.warn("Image " + imageName + " (" + width + "x" + height + ", " + bytes.length + " bytes) is over the image limits, gifs are uploaded as they are.");
+            return null;
+        }
+
+        double scale = Math.min(1, (double) maxDimension / Math.max(width, height));
+        byte[] optimized = encode(resize(image, Math.max(1, (int) Math.round(width * scale)), Math.max(1, (int) Math.round(height * scale))));
+        if (optimized.length > maxBytes)
+            logger.warn("Image " + imageName + " is still " + optimized.length + " bytes after downscaling, Discord may reject it.");
+        return optimized.length < bytes.length || scale < 1 ? optimized : null;
+    }
+
+    /**
+     * Encodes an image as png, or as jpeg if it has no transparency and the png is too large, and downscales it further while it is over the byte limit.
+     * @return The smallest encoding.
+     */
+    private byte[] encode(BufferedImage image) throws IOException {
+        BufferedImage current = image;
+        byte[] smallest = null;
+        while (true) {
+            byte[] png = write(current, "png", -1);
+            if (smallest == null || png.length < smallest.length)
+                smallest = png;
+            if (png.length <= maxBytes)
+                return png;
+            if (!current.getColorModel().hasAlpha()) {
+                for (float quality : JPEG_QUALITIES) {
+                    byte[] jpeg = write(current, "jpeg", quality);
+                    if (jpeg.length < smallest.length)
+                        smallest = jpeg;
+                    if (jpeg.length <= maxBytes)
+                        return jpeg;
+                }
+            }
+            if (Math.max(current.getWidth(), current.getHeight()) <= MIN_DIMENSION)
+                return smallest;
+            current = resize(current, Math.max(1, current.getWidth() * 3 / 4), Math.max(1, current.getHeight() * 3 / 4));
+        }
+    }
+
+    /**
+     * Downscales in steps of at most half the size, a single bilinear step to a much smaller size skips most of the pixels.
+     */
+    private static BufferedImage resize(BufferedImage image, int width, int height) {
+        BufferedImage current = image;
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        while (current.getWidth() != width || current.getHeight() != height) {
+            int stepWidth = Math.max(width, current.getWidth() / 2);
+            int stepHeight = Math.max(height, current.getHeight() / 2);
+            BufferedImage step = new BufferedImage(stepWidth, stepHeight, type);
+            Graphics2D graphics = step.createGraphics();
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.drawImage(current, 0, 0, stepWidth, stepHeight, null);
+            graphics.dispose();
+            current = step;
+        }
+        return current;
+    }
+
+    private static byte[] write(BufferedImage image, String format, float quality) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName(format).next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            writer.setOutput(stream);
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            if (quality >= 0) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(quality);
+            }
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static String hash(byte[] data) {
+        try {
+            StringBuilder builder = new StringBuilder(64);
+            for (byte b : MessageDigest.getInstance("SHA-256").digest(data))
+                builder.append(String.format("%02x", b));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Stops the worker pool, images which have not been prepared yet are uploaded as they are afterwards.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    @Override
+    public Collection<String> getThemeFileNames() throws IOException {
+        return source.getThemeFileNames();
+    }
+
+    @CheckForNull
+    @Override
+    public ByteBuffer readTheme(String fileName) throws IOException {
+        return source.readTheme(fileName);
+    }
+
+    @Override
+    public boolean hasImage(String imageName) {
+        return source.hasImage(imageName);
+    }
+
+    /**
+     * @return Returns the prepared image, or the original if it is still being prepared.
+     */
+    @CheckForNull
+    @Override
+    public ByteBuffer readImage(String imageName) throws IOException {
+        long version = source.getImageVersion(imageName);
+        ByteBuffer original = source.readImage(imageName);
+        if (original == null)
+            return null;
+        CompletableFuture<Prepared> job = job(imageName, version, toArray(original));
+        if (!job.isDone())
+            return original;
+        Prepared prepared = job.join();
+        if (prepared.bytes != null)
+            return ByteBuffer.wrap(prepared.bytes);
+        if (prepared.file != null) {
+            try {
+                return ByteBuffer.wrap(Files.readAllBytes(prepared.file.toPath()));
+            } catch (NoSuchFileException e) {
+                //The cache was cleared, prepare it again next time
+                jobs.values().remove(job);
+            }
+        }
+        return original;
+    }
+
+    /**
+     * @return The version of the original image, changed once the image has been prepared.
+     */
+    @Override
+    public long getImageVersion(String imageName) {
+        long version = source.getImageVersion(imageName);
+        Original original = originals.get(imageName);
+        CompletableFuture<Prepared> job = original == null || original.version != version ? null : jobs.get(original.hash);
+        return job != null && job.isDone() ? version * 2 + 1 : version * 2;
+    }
+
+    @Override
+    public String toString() {
+        return source.toString();
+    }
+
+    private static class Original {
+        private final long version;
+        private final String hash;
+
+        private Original(long version, String hash) {
+            this.version = version;
+            this.hash = hash;
+        }
+    }
+
+    private static class Prepared {
+        //Both null: the original image is uploaded
+        @Nullable
+        private final File file;
+        @Nullable
+        private final byte[] bytes;
+
+        private Prepared(@Nullable File file, @Nullable byte[] bytes) {
+            this.file = file;
+            this.bytes = bytes;
+        }
+    }
+}
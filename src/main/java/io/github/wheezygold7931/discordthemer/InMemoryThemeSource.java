@@ -0,0 +1,81 @@
+package io.github.wheezygold7931.discordthemer;
+
+import javax.annotation.CheckForNull;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Themes and images defined in code, such as themes generated by your bot.
+ * Add every theme before the themer is built, the catalog only lists the source when it is loaded.
+ */
+@SuppressWarnings("WeakerAccess")
+public class InMemoryThemeSource implements ThemeSource {
+
+    private final Map<String, byte[]> themes = new LinkedHashMap<>();
+    private final Map<String, Image> images = new LinkedHashMap<>();
+    private long imageVersion = 0;
+
+    /**
+     * Adds a theme, replacing a theme with the same name.
+     * @param themeName The theme name, as if it was the name of a theme file without ".dat".
+     * @param content The content of the theme file.
+     */
+    public synchronized InMemoryThemeSource addTheme(String themeName, String content) {
+        themes.put(themeName + ".dat", content.getBytes(StandardCharsets.UTF_8));
+        return this;
+    }
+
+    /**
+     * Adds an image, replacing an image with the same name.
+     * @param imageName The name the themes use in their icon or avatar MetaData.
+     * @param png The png image, it is not copied.
+     */
+    public synchronized InMemoryThemeSource addImage(String imageName, byte[] png) {
+        images.put(imageName, new Image(png, ++imageVersion));
+        return this;
+    }
+
+    @Override
+    public synchronized Collection<String> getThemeFileNames() {
+        return new ArrayList<>(themes.keySet());
+    }
+
+    @CheckForNull
+    @Override
+    public synchronized ByteBuffer readTheme(String fileName) {
+        byte[] content = themes.get(fileName);
+        return content == null ? null : ByteBuffer.wrap(content).asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized boolean hasImage(String imageName) {
+        return images.containsKey(imageName);
+    }
+
+    @CheckForNull
+    @Override
+    public synchronized ByteBuffer readImage(String imageName) {
+        Image image = images.get(imageName);
+        return image == null ? null : ByteBuffer.wrap(image.png).asReadOnlyBuffer();
+    }
+
+    @Override
+    public synchronized long getImageVersion(String imageName) {
+        Image image = images.get(imageName);
+        return image == null ? 0 : image.version;
+    }
+
+    private static class Image {
+        private final byte[] png;
+        private final long version;
+
+        private Image(byte[] png, long version) {
+            this.png = png;
+            this.version = version;
+        }
+    }
+}
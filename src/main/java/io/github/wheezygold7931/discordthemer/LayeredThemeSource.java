@@ -0,0 +1,76 @@
+package io.github.wheezygold7931.discordthemer;
+
+import javax.annotation.CheckForNull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Several sources read as one, a theme or image in an earlier source hides the one with the same name in later sources.
+ * The catalog puts the theme folder in front of the configured source so captured and edited themes replace packaged ones.
+ */
+class LayeredThemeSource implements ThemeSource {
+
+    private final ThemeSource[] layers;
+
+    LayeredThemeSource(ThemeSource... layers) {
+        this.layers = layers;
+    }
+
+    @Override
+    public Collection<String> getThemeFileNames() throws IOException {
+        Set<String> fileNames = new LinkedHashSet<>();
+        for (ThemeSource layer : layers)
+            fileNames.addAll(layer.getThemeFileNames());
+        return fileNames;
+    }
+
+    @CheckForNull
+    @Override
+    public ByteBuffer readTheme(String fileName) throws IOException {
+        for (ThemeSource layer : layers) {
+            ByteBuffer content = layer.readTheme(fileName);
+            if (content != null)
+                return content;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean hasImage(String imageName) {
+        for (ThemeSource layer : layers) {
+            if (layer.hasImage(imageName))
+                return true;
+        }
+        return false;
+    }
+
+    @CheckForNull
+    @Override
+    public ByteBuffer readImage(String imageName) throws IOException {
+        for (ThemeSource layer : layers) {
+            ByteBuffer image = layer.readImage(imageName);
+            if (image != null)
+                return image;
+        }
+        return null;
+    }
+
+    @Override
+    public long getImageVersion(String imageName) {
+        for (int i = 0; i < layers.length; i++) {
+            //The layer is part of the version so an image which starts hiding another one is read again
+            if (layers[i].hasImage(imageName))
+                return layers[i].getImageVersion(imageName) * 31 + i;
+        }
+        return 0;
+    }
+
+    @Override
+    public String toString() {
+        return Arrays.toString(layers);
+    }
+}
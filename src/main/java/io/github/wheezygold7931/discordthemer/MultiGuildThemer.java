@@ -0,0 +1,127 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.apply.ApplyReport;
+import io.github.wheezygold7931.discordthemer.apply.CooldownTracker;
+import io.github.wheezygold7931.discordthemer.apply.IconCache;
+import io.github.wheezygold7931.discordthemer.exceptions.ThemeNotFoundException;
+import io.github.wheezygold7931.discordthemer.metrics.ThemerListener;
+import io.github.wheezygold7931.discordthemer.util.ActionMode;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.sharding.ShardManager;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Themes any number of guilds from a single {@link ThemeCatalog}.
+ * The catalog, icon cache and avatar cooldown are shared by every guild, each guild only gets a lightweight {@link DiscordThemer} which resolves the theme's roles in that guild.
+ */
+@SuppressWarnings("WeakerAccess")
+public class MultiGuildThemer {
+
+    @Nullable
+    private final JDA jda;
+    @Nullable
+    private final ShardManager shardManager;
+    private final ThemeCatalog catalog;
+    private final IconCache iconCache;
+    private final CooldownTracker cooldowns;
+    private final ActionMode actionMode;
+    private final int maxActionsInFlight;
+    private final int snapshotLimit;
+    private final ThemerListener listener;
+    private final DiscordThemerLogger logger;
+
+    private final Map<Long, DiscordThemer> themers = new ConcurrentHashMap<>();
+    private final ThemerEventListener eventListener = new ThemerEventListener(themers::get);
+
+    /**
+     * Protected Constructor to be used internally only.
+     */
+    protected MultiGuildThemer(@Nullable JDA jda, @Nullable ShardManager shardManager, ThemeCatalog catalog, IconCache iconCache, CooldownTracker cooldowns, ActionMode actionMode, int maxActionsInFlight, int snapshotLimit, ThemerListener listener, DiscordThemerLogger logger) {
+        this.jda = jda;
+        this.shardManager = shardManager;
+        this.catalog = catalog;
+        this.iconCache = iconCache;
+        this.cooldowns = cooldowns;
+        this.actionMode = actionMode;
+        this.maxActionsInFlight = maxActionsInFlight;
+        this.snapshotLimit = snapshotLimit;
+        this.listener = listener;
+        this.logger = logger;
+        if (shardManager != null)
+            shardManager.addEventListener(eventListener);
+        else
+            jda.addEventListener(eventListener);
+        logger.info("Discord-Themer Initialized for multiple guilds!");
+    }
+
+    /**
+     * Gets the themer of a guild, creating it on first use.
+     * @param guild The guild to be themed.
+     * @return The themer of the guild.
+     */
+    public DiscordThemer getThemer(Guild guild) {
+        return themers.computeIfAbsent(guild.getIdLong(), id -> new DiscordThemer(guild.getJDA(), guild, catalog, false, iconCache, cooldowns, actionMode, maxActionsInFlight, snapshotLimit, listener, logger));
+    }
+
+    /**
+     * Gets the themer of a guild, creating it on first use.
+     * @param guildId The id of the guild to be themed.
+     * @return The themer of the guild.
+     * @throws IllegalArgumentException Throws if the guild does not exist.
+     */
+    public DiscordThemer getThemer(String guildId) throws IllegalArgumentException {
+        Guild guild = shardManager != null ? shardManager.getGuildById(guildId) : jda.getGuildById(guildId);
+        if (guild == null)
+            throw new IllegalArgumentException("Invalid Guild-ID Provided (Cannot Be Found)");
+        return getThemer(guild);
+    }
+
+    /**
+     * Sets the theme for a guild.
+     * @param guild The guild to be themed.
+     * @param themeName The theme name to use.
+     * @return Returns a future of the report of how many actions were sent, skipped and failed.
+     * @throws ThemeNotFoundException Throws {@link ThemeNotFoundException} when theme is invalid.
+     * @see DiscordThemer#setServerTheme(String)
+     */
+    public CompletableFuture<ApplyReport> setServerTheme(Guild guild, String themeName) throws ThemeNotFoundException {
+        return getThemer(guild).setServerTheme(themeName);
+    }
+
+    /**
+     * Drops the themer of a guild, for example after the bot has left it.
+     * @param guildId The id of the guild.
+     */
+    public void removeThemer(long guildId) {
+        DiscordThemer themer = themers.remove(guildId);
+        if (themer != null)
+            themer.shutdown();
+    }
+
+    /**
+     * @return The catalog shared by every guild.
+     */
+    public ThemeCatalog getCatalog() {
+        return catalog;
+    }
+
+    /**
+     * Stops the scheduler of every guild and stops watching the theme folder, if {@link DiscordThemerBuilder#setWatchThemeFolder(boolean)} was enabled.
+     */
+    public void shutdown() {
+        for (DiscordThemer themer : themers.values())
+            themer.shutdown();
+        if (shardManager != null)
+            shardManager.removeEventListener(eventListener);
+        else
+            jda.removeEventListener(eventListener);
+        cooldowns.shutdown();
+        catalog.shutdown();
+    }
+}
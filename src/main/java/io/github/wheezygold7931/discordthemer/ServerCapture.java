@@ -0,0 +1,187 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import io.github.wheezygold7931.discordthemer.util.ParserVersion;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Role;
+
+import javax.annotation.Nullable;
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Exports the current state of a guild as a theme file.
+ * The server icon and bot avatar are downloaded at the same time with connect and read timeouts.
+ * Images which already are PNGs are streamed to disk as they are, anything else is converted with {@link ImageIO}.
+ */
+class ServerCapture {
+
+    static final int DEFAULT_TIMEOUT_MILLIS = 10000;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final ExecutorService downloadExecutor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "discord-themer-capture");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final File themeDir;
+    private final int timeoutMillis;
+    private final DiscordThemerLogger logger;
+
+    ServerCapture(File themeDir, int timeoutMillis, DiscordThemerLogger logger) {
+        this.themeDir = themeDir;
+        this.timeoutMillis = timeoutMillis;
+        this.logger = logger;
+    }
+
+    /**
+     * Reads the guild on the calling thread and downloads its images in the background.
+     * @param guild The guild to capture.
+     * @param name The name of the theme file.
+     * @return Returns a future of the written theme file.
+     * @throws IllegalArgumentException Throws if file with name exists.
+     */
+    CompletableFuture<File> capture(Guild guild, String name) throws IllegalArgumentException {
+        File file = new File(themeDir.getPath() + "\\" + name + ".dat");
+        if (file.exists())
+            throw new IllegalArgumentException("Theme file already exists!");
+
+        //Take everything from JDA's cache now so the theme is one consistent snapshot
+        String title = guild.getName();
+        String nickname = guild.getSelfMember().getNickname();
+        List<String> roleLines = new ArrayList<>();
+        for (Role role : guild.getRoles()) {
+            //Ignore the everyone role & managed roles
+            if (role.isPublicRole() || role.isManaged())
+                continue;
+            roleLines.add(role.getId() + ":" + role.getName());
+        }
+
+        CompletableFuture<Boolean> icon = download(guild.getIconUrl(), new File(themeDir.getPath() + "\\" + name + ".png"), "Server Icon");
+        CompletableFuture<Boolean> avatar = download(guild.getJDA().getSelfUser().getAvatarUrl(), new File(themeDir.getPath() + "\\avatar" + name + ".png"), "Avatar");
+
+        return icon.thenCombine(avatar, (hasIcon, hasAvatar) -> {
+            try {
+                writeTheme(file, name, title, hasIcon, hasAvatar, nickname, roleLines);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return file;
+        });
+    }
+
+    private void writeTheme(File file, String name, String title, boolean hasIcon, boolean hasAvatar, @Nullable String nickname, List<String> roleLines) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(temp, "UTF-8")) {
+            writer.println("//Theme Auto-Exported from DiscordThemer#captureServer");
+
+            //Theme Display Name
+            writer.println("MetaData:name:" + name + " (Auto-Exported)");
+
+            //Guild Name
+            writer.println("MetaData:title:" + title);
+
+            //Guild Icon
+            if (hasIcon)
+                writer.println("MetaData:icon:" + name);
+
+            //Bot Avatar
+            if (hasAvatar)
+                writer.println("MetaData:avatar:avatar" + name);
+
+            //Bot Nickname
+            if (nickname != null)
+                writer.println("MetaData:nickname:" + nickname);
+
+            //Parser Version
+            writer.println("MetaData:parser:" + ParserVersion.currentVersion.getVersionString());
+
+            //Break from MetaData
+            writer.println();
+            writer.println("//Server Roles");
+
+            for (String line : roleLines)
+                writer.println(line);
+        }
+        //Only show the theme file once it is complete so the folder watcher never sees half of it
+        Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return Returns a future which is true once the image was written, or false if there is no image to download.
+     */
+    CompletableFuture<Boolean> download(@Nullable String url, File target, String label) {
+        if (url == null) {
+            logger.debug("No " + label + " set, Skipping!");
+            return CompletableFuture.completedFuture(false);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                transfer(url, target, label);
+                return true;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }, downloadExecutor);
+    }
+
+    private void transfer(String url, File target, String label) throws IOException {
+        logger.debug("Downloading " + label + "...");
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        //Discord throws a 500 Error when User-Agents are not supplied
+        connection.setRequestProperty("User-Agent", "Discord-Themer");
+        try {
+            int status = connection.getResponseCode();
+            if (status != HttpURLConnection.HTTP_OK)
+                throw new IOException("Downloading the " + label + " failed with HTTP " + status);
+
+            File temp = new File(target.getPath() + ".tmp");
+            try (InputStream in = new BufferedInputStream(connection.getInputStream())) {
+                if (isPng(in)) {
+                    Files.copy(in, temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    logger.debug(label + " Downloaded!");
+                } else {
+                    BufferedImage image = ImageIO.read(in);
+                    if (image == null)
+                        throw new IOException("The " + label + " is not an image format we can read");
+                    ImageIO.write(image, "png", temp);
+                    logger.debug(label + " PNG Conversion Done!");
+                }
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private static boolean isPng(InputStream in) throws IOException {
+        in.mark(PNG_SIGNATURE.length);
+        try {
+            for (byte b : PNG_SIGNATURE) {
+                if (in.read() != (b & 0xff))
+                    return false;
+            }
+            return true;
+        } finally {
+            in.reset();
+        }
+    }
+}
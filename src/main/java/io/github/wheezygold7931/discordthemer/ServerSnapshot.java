@@ -0,0 +1,126 @@
+package io.github.wheezygold7931.discordthemer;
+
+import javax.annotation.CheckForNull;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The state of a guild right before a theme switch, taken by {@link DiscordThemer#setServerTheme(String)}.
+ * Only the fields the switch could change are recorded, see {@link DiscordThemer#rollback(ServerSnapshot)} to return to it.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ServerSnapshot {
+
+    static final String TITLE = "title";
+    static final String NICKNAME = "nickname";
+    static final String ICON = "icon";
+    static final String AVATAR = "avatar";
+
+    private final int id;
+    private final Instant time;
+    private final String themeName;
+
+    /**
+     * Key: One of the field constants above or a role id
+     * Value: The value of the field, null if it was not set (no nickname, no icon, ...)
+     */
+    private final Map<String, String> values;
+
+    /**
+     * Protected Constructor to be used internally only.
+     */
+    protected ServerSnapshot(int id, Instant time, String themeName, Map<String, String> values) {
+        this.id = id;
+        this.time = time;
+        this.themeName = themeName;
+        this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+    }
+
+    /**
+     * @return The id of the snapshot, later snapshots have higher ids.
+     */
+    public int getId() {
+        return id;
+    }
+
+    public Instant getTime() {
+        return time;
+    }
+
+    /**
+     * @return The name of the theme which was applied after this snapshot was taken.
+     */
+    public String getThemeName() {
+        return themeName;
+    }
+
+    /**
+     * @return Returns true if the server title was recorded.
+     */
+    public boolean hasServerTitle() {
+        return values.containsKey(TITLE);
+    }
+
+    @CheckForNull
+    public String getServerTitle() {
+        return values.get(TITLE);
+    }
+
+    /**
+     * @return Returns true if the bot nickname was recorded, {@link ServerSnapshot#getBotNickname()} is null if the bot had none.
+     */
+    public boolean hasBotNickname() {
+        return values.containsKey(NICKNAME);
+    }
+
+    @CheckForNull
+    public String getBotNickname() {
+        return values.get(NICKNAME);
+    }
+
+    /**
+     * @return The Discord id (hash) of the server icon, null if it was not recorded or the server had no icon.
+     */
+    @CheckForNull
+    public String getServerIconId() {
+        return values.get(ICON);
+    }
+
+    /**
+     * @return The Discord id (hash) of the bot avatar, null if it was not recorded or the bot had no avatar.
+     */
+    @CheckForNull
+    public String getBotAvatarId() {
+        return values.get(AVATAR);
+    }
+
+    /**
+     * @return The recorded role names, keyed by role id.
+     */
+    public Map<Long, String> getRoleNames() {
+        Map<Long, String> roles = new LinkedHashMap<>();
+        for (Map.Entry<String, String> entry : values.entrySet()) {
+            if (isRoleKey(entry.getKey()))
+                roles.put(Long.parseLong(entry.getKey()), entry.getValue());
+        }
+        return roles;
+    }
+
+    /**
+     * @return Every recorded field, keyed by field name or role id.
+     */
+    Map<String, String> getValues() {
+        return values;
+    }
+
+    static boolean isRoleKey(String key) {
+        return !key.isEmpty() && Character.isDigit(key.charAt(0));
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot " + id + " at " + time + " (before " + themeName + ", " + values.size() + " fields)";
+    }
+}
@@ -0,0 +1,414 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.SelfUser;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * The {@link ServerSnapshot}s of a guild, kept in a journal file inside the theme folder ("snapshots/GUILD_ID/journal.bin").
+ * Each record only stores the fields whose value differs from the state the records before it add up to, unchanged fields are stored as their key.
+ * Icons and avatars are stored once per Discord image id (a hash of the image) in the "images" folder next to the journal, so unchanged images are shared by every snapshot.
+ * New snapshots are appended, the file is only compacted once it holds twice as many records as the limit or when a rollback drops snapshots.
+ * The journal is read and written in the background one task at a time in the order they were submitted, reading the snapshots waits for the pending tasks.
+ */
+class SnapshotJournal {
+
+    private static final int MAGIC = 0x44544a31; // "DTJ1"
+    private static final int FORMAT_VERSION = 1;
+
+    private final File journalFile;
+    private final File imageDir;
+    private final String imagePrefix;
+    private final int limit;
+    private final ServerCapture capture;
+    private final DiscordThemerLogger logger;
+
+    private final List<ServerSnapshot> snapshots = new ArrayList<>();
+    /**
+     * The ids of the images which are being downloaded, they must not be collected as unused.
+     */
+    private final Set<String> pendingImages = new HashSet<>();
+    /**
+     * The values of every field as of the latest record, records are encoded against it.
+     */
+    private final Map<String, String> state = new HashMap<>();
+    private int nextId = 1;
+    private int journalRecords = 0;
+    private CompletableFuture<Void> tasks = CompletableFuture.completedFuture(null);
+
+    /**
+     * @param themeDir The theme folder, the journal is kept in a sub folder of it.
+     * @param guildId The id of the guild the snapshots belong to.
+     * @param limit The maximum amount of snapshots to keep, older ones are dropped.
+     * @param capture Used to download icons and avatars.
+     * @param logger The logger to report problems to.
+     */
+    SnapshotJournal(File themeDir, String guildId, int limit, ServerCapture capture, DiscordThemerLogger logger) {
+        File dir = new File(new File(themeDir, "snapshots"), guildId);
+        this.journalFile = new File(dir, "journal.bin");
+        this.imageDir = new File(dir, "images");
+        //Theme images are resolved as the theme folder's path + image name + ".png"
+        this.imagePrefix = File.separator + "snapshots" + File.separator + guildId + File.separator + "images" + File.separator;
+        this.limit = limit;
+        this.capture = capture;
+        this.logger = logger;
+        submit(this::load);
+    }
+
+    /**
+     * Records the fields of the guild which a theme would change, before it is applied.
+     * The state is read from JDA's cache on the calling thread, the snapshot is written and images which are not stored yet are downloaded in the background.
+     * @param guild The guild to snapshot.
+     * @param token The theme which is about to be applied.
+     * @param themeName The name of the theme.
+     */
+    void record(Guild guild, ThemeToken token, String themeName) {
+        Instant time = Instant.now();
+        Map<String, String> values = new LinkedHashMap<>();
+        SelfUser selfUser = guild.getJDA().getSelfUser();
+        if (token.getServerTitle() != null)
+            values.put(ServerSnapshot.TITLE, guild.getName());
+        if (token.getBotNickname() != null)
+            values.put(ServerSnapshot.NICKNAME, guild.getSelfMember().getNickname());
+        String iconId = token.getServerIconName() != null ? guild.getIconId() : null;
+        String iconUrl = iconId != null ? guild.getIconUrl() : null;
+        if (token.getServerIconName() != null)
+            values.put(ServerSnapshot.ICON, iconId);
+        String avatarId = token.getBotIconName() != null ? selfUser.getAvatarId() : null;
+        String avatarUrl = avatarId != null ? selfUser.getAvatarUrl() : null;
+        if (token.getBotIconName() != null)
+            values.put(ServerSnapshot.AVATAR, avatarId);
+        for (int i = 0; i < token.getRoleCount(); i++) {
+            Role role = guild.getRoleById(token.getRoleId(i));
+            if (role != null)
+                values.put(role.getId(), role.getName());
+        }
+
+        submit(() -> {
+            storeImage(iconId, iconUrl, "Server Icon");
+            storeImage(avatarId, avatarUrl, "Avatar");
+            ServerSnapshot snapshot;
+            synchronized (snapshots) {
+                snapshot = new ServerSnapshot(nextId++, time, themeName, values);
+                snapshots.add(snapshot);
+                if (snapshots.size() > limit)
+                    snapshots.subList(0, snapshots.size() - limit).clear();
+            }
+            //Dropped snapshots stay in the file until it has grown to twice the limit, so most switches only append
+            if (journalRecords + 1 > limit * 2)
+                rewrite();
+            else
+                append(snapshot);
+            logger.debug(() -> "Recorded " + snapshot);
+        });
+    }
+
+    /**
+     * @return A copy of the snapshots, oldest first.
+     */
+    List<ServerSnapshot> getSnapshots() {
+        await();
+        synchronized (snapshots) {
+            return new ArrayList<>(snapshots);
+        }
+    }
+
+    @CheckForNull
+    ServerSnapshot latest() {
+        await();
+        synchronized (snapshots) {
+            return snapshots.isEmpty() ? null : snapshots.get(snapshots.size() - 1);
+        }
+    }
+
+    /**
+     * Collects the values to restore to return to a snapshot.
+     * A field recorded by a later snapshot but not by the given one was not changed by the switches in between, so its value from the earliest later snapshot is used.
+     * @param snapshot The snapshot to return to.
+     * @return The values of every field changed since the snapshot, keyed by field name or role id.
+     */
+    Map<String, String> valuesSince(ServerSnapshot snapshot) {
+        await();
+        Map<String, String> values = new LinkedHashMap<>(snapshot.getValues());
+        synchronized (snapshots) {
+            int index = snapshots.indexOf(snapshot);
+            if (index != -1) {
+                for (ServerSnapshot later : snapshots.subList(index + 1, snapshots.size())) {
+                    for (Map.Entry<String, String> entry : later.getValues().entrySet())
+                        values.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Drops a snapshot and every snapshot taken after it, once the guild has been rolled back to it.
+     * @param snapshot The snapshot to drop.
+     */
+    void dropFrom(ServerSnapshot snapshot) {
+        submit(() -> {
+            synchronized (snapshots) {
+                int index = snapshots.indexOf(snapshot);
+                if (index == -1)
+                    return;
+                snapshots.subList(index, snapshots.size()).clear();
+            }
+            rewrite();
+        });
+    }
+
+    /**
+     * Waits until every snapshot submitted so far has been written.
+     */
+    void await() {
+        CompletableFuture<Void> pending;
+        synchronized (this) {
+            pending = tasks;
+        }
+        pending.join();
+    }
+
+    /**
+     * Runs a task after every task submitted before it, a failing task does not stop the ones after it.
+     */
+    private synchronized void submit(Runnable task) {
+        tasks = tasks.thenRunAsync(() -> {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                logger.warn("Error in the snapshot journal " + journalFile.getPath() + ": " + e);
+            }
+        });
+    }
+
+    /**
+     * @param imageId The Discord id of the image.
+     * @return The name to use as the icon or avatar of a {@link ThemeToken}, or null if the image is not stored.
+     */
+    @CheckForNull
+    String imageName(String imageId) {
+        return imageFile(imageId).isFile() ? imagePrefix + imageId : null;
+    }
+
+    private File imageFile(String imageId) {
+        return new File(imageDir, imageId + ".png");
+    }
+
+    private void storeImage(@Nullable String imageId, @Nullable String url, String label) {
+        if (imageId == null || imageFile(imageId).isFile())
+            return;
+        synchronized (pendingImages) {
+            if (!pendingImages.add(imageId))
+                return;
+        }
+        if (!imageDir.isDirectory() && !imageDir.mkdirs()) {
+            logger.warn("Could not create the snapshot image folder " + imageDir.getPath());
+            downloaded(imageId);
+            return;
+        }
+        capture.download(url, imageFile(imageId), label).whenComplete((stored, e) -> {
+            downloaded(imageId);
+            if (e != null)
+                logger.warn("Could not store the " + label + " of a snapshot, rolling back to it will leave the " + label + " unchanged: " + e.getMessage());
+        });
+    }
+
+    private void downloaded(String imageId) {
+        synchronized (pendingImages) {
+            pendingImages.remove(imageId);
+        }
+    }
+
+    private void load() {
+        if (!journalFile.isFile())
+            return;
+        boolean damaged = false;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                logger.warn("Snapshot journal " + journalFile.getPath() + " has an unknown format, starting a new one.");
+                damaged = true;
+            }
+            while (!damaged) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                try {
+                    in.readFully(record);
+                } catch (EOFException e) {
+                    //A record which was only partly written, such as after a crash
+                    damaged = true;
+                    break;
+                }
+                ServerSnapshot snapshot = decode(new DataInputStream(new ByteArrayInputStream(record)));
+                journalRecords++;
+                nextId = snapshot.getId() + 1;
+                synchronized (snapshots) {
+                    snapshots.add(snapshot);
+                    if (snapshots.size() > limit)
+                        snapshots.remove(0);
+                }
+            }
+        } catch (IOException e) {
+            logger.warn("Could not read the snapshot journal, older snapshots are lost: " + e.getMessage());
+            damaged = true;
+        }
+        if (damaged || journalRecords > limit * 2)
+            rewrite();
+        logger.debug(() -> "Loaded " + snapshots.size() + " snapshots from " + journalFile.getPath());
+    }
+
+    private void append(ServerSnapshot snapshot) {
+        if (!journalFile.isFile()) {
+            rewrite();
+            return;
+        }
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journalFile, true)))) {
+            writeRecord(out, snapshot);
+            journalRecords++;
+        } catch (IOException e) {
+            logger.warn("Could not write the snapshot journal: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes the remaining snapshots to a new journal, replacing the old one atomically, and deletes images no snapshot uses anymore.
+     * Images which are still being downloaded and their temporary files are kept.
+     */
+    private void rewrite() {
+        List<ServerSnapshot> remaining;
+        synchronized (snapshots) {
+            remaining = new ArrayList<>(snapshots);
+        }
+        state.clear();
+        File dir = journalFile.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            logger.warn("Could not create the snapshot folder " + dir.getPath());
+            return;
+        }
+        File tempFile = new File(journalFile.getPath() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT_VERSION);
+                for (ServerSnapshot snapshot : remaining)
+                    writeRecord(out, snapshot);
+            }
+            Files.move(tempFile.toPath(), journalFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            journalRecords = remaining.size();
+        } catch (IOException e) {
+            logger.warn("Could not write the snapshot journal: " + e.getMessage());
+        }
+
+        Set<String> usedImages = new HashSet<>();
+        for (ServerSnapshot snapshot : remaining) {
+            if (snapshot.getServerIconId() != null)
+                usedImages.add(snapshot.getServerIconId() + ".png");
+            if (snapshot.getBotAvatarId() != null)
+                usedImages.add(snapshot.getBotAvatarId() + ".png");
+        }
+        synchronized (pendingImages) {
+            for (String imageId : pendingImages)
+                usedImages.add(imageId + ".png");
+        }
+        File[] images = imageDir.listFiles();
+        if (images != null) {
+            for (File image : images) {
+                //A download in progress writes to a temporary file first
+                if (image.getName().endsWith(".tmp"))
+                    continue;
+                if (!usedImages.contains(image.getName()) && !image.delete())
+                    logger.debug("Could not delete unused snapshot image " + image.getName());
+            }
+        }
+    }
+
+    /**
+     * Writes a length prefixed record so a partly written record at the end of the journal can be detected.
+     */
+    private void writeRecord(DataOutputStream out, ServerSnapshot snapshot) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        encode(new DataOutputStream(buffer), snapshot);
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+    }
+
+    private void encode(DataOutputStream out, ServerSnapshot snapshot) throws IOException {
+        List<Map.Entry<String, String>> changed = new ArrayList<>();
+        List<String> unchanged = new ArrayList<>();
+        for (Map.Entry<String, String> entry : snapshot.getValues().entrySet()) {
+            if (state.containsKey(entry.getKey()) && Objects.equals(state.get(entry.getKey()), entry.getValue()))
+                unchanged.add(entry.getKey());
+            else
+                changed.add(entry);
+        }
+
+        out.writeInt(snapshot.getId());
+        out.writeLong(snapshot.getTime().toEpochMilli());
+        out.writeUTF(snapshot.getThemeName());
+        out.writeInt(changed.size());
+        for (Map.Entry<String, String> entry : changed) {
+            out.writeUTF(entry.getKey());
+            out.writeBoolean(entry.getValue() != null);
+            if (entry.getValue() != null)
+                out.writeUTF(entry.getValue());
+            state.put(entry.getKey(), entry.getValue());
+        }
+        out.writeInt(unchanged.size());
+        for (String key : unchanged)
+            out.writeUTF(key);
+    }
+
+    private ServerSnapshot decode(DataInputStream in) throws IOException {
+        int id = in.readInt();
+        Instant time = Instant.ofEpochMilli(in.readLong());
+        String themeName = in.readUTF();
+        Map<String, String> values = new LinkedHashMap<>();
+        int changedCount = in.readInt();
+        for (int i = 0; i < changedCount; i++) {
+            String key = in.readUTF();
+            String value = in.readBoolean() ? in.readUTF() : null;
+            values.put(key, value);
+            state.put(key, value);
+        }
+        int unchangedCount = in.readInt();
+        for (int i = 0; i < unchangedCount; i++) {
+            String key = in.readUTF();
+            if (!state.containsKey(key))
+                throw new IOException("Snapshot " + id + " refers to a field no earlier snapshot recorded: " + key);
+            values.put(key, state.get(key));
+        }
+        return new ServerSnapshot(id, time, themeName, values);
+    }
+}
@@ -0,0 +1,271 @@
+package io.github.wheezygold7931.discordthemer;
+
+import javax.annotation.CheckForNull;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Many themes and their images packed into a single file, create one with {@link ThemeBundle#pack(File, File)} and load it with {@link DiscordThemerBuilder#setThemeBundle(File)}.
+ * The bundle is memory-mapped and its index is read when it is opened, theme files and images are handed out as slices of the mapping without copying them.
+ *
+ * <p>Layout: a header (magic, format version, theme count, image count), an index entry (name, offset, length) per theme and per image, followed by the data.
+ * Themes are keyed by their file name ("night.dat"), images by the name the themes use in their icon or avatar MetaData.</p>
+ *
+ * <p>A bundle is a {@link ThemeSource}, open one with {@link ThemeBundle#open(File)} to combine it with another source.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public class ThemeBundle implements ThemeSource {
+
+    private static final int MAGIC = 0x44544231; // "DTB1"
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+    private final MappedByteBuffer buffer;
+    private final Map<String, Slice> themes;
+    private final Map<String, Slice> images;
+
+    private ThemeBundle(File file, MappedByteBuffer buffer, Map<String, Slice> themes, Map<String, Slice> images) {
+        this.file = file;
+        this.buffer = buffer;
+        this.themes = themes;
+        this.images = images;
+    }
+
+    /**
+     * Maps a bundle and reads its index.
+     * @param file The bundle file.
+     * @return The opened bundle.
+     * @throws IOException Throws when the file cannot be read or is not a valid bundle.
+     */
+    public static ThemeBundle open(File file) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Theme bundles cannot be larger than 2 GiB");
+            //The mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        try {
+            ByteBuffer index = buffer.duplicate();
+            if (index.getInt() != MAGIC || index.getInt() != FORMAT_VERSION)
+                throw new IOException("Not a theme bundle or written by a newer version: " + file.getName());
+            int themeCount = index.getInt();
+            int imageCount = index.getInt();
+            Map<String, Slice> themes = readIndex(index, themeCount, buffer.capacity());
+            Map<String, Slice> images = readIndex(index, imageCount, buffer.capacity());
+            return new ThemeBundle(file, buffer, themes, images);
+        } catch (RuntimeException e) {
+            //BufferUnderflowException, IllegalArgumentException, ... from a truncated or corrupt index
+            throw new IOException("Corrupt theme bundle " + file.getName() + ": " + e, e);
+        }
+    }
+
+    private static Map<String, Slice> readIndex(ByteBuffer index, int count, int capacity) throws IOException {
+        Map<String, Slice> entries = new LinkedHashMap<>(count * 2);
+        for (int i = 0; i < count; i++) {
+            byte[] name = new byte[index.getShort() & 0xffff];
+            index.get(name);
+            int offset = index.getInt();
+            int length = index.getInt();
+            if (offset < 0 || length < 0 || offset > capacity - length)
+                throw new IOException("Index entry points outside of the bundle");
+            entries.put(new String(name, StandardCharsets.UTF_8), new Slice(offset, length));
+        }
+        return Collections.unmodifiableMap(entries);
+    }
+
+    /**
+     * Packs every theme file of a theme folder, and the images they use, into a bundle.
+     * Images are resolved the same way the parser resolves them, themes whose images are missing are packed without them and fail validation when loaded.
+     * @param themeDir The theme folder.
+     * @param bundleFile The bundle to write, an existing file is replaced.
+     * @return The amount of themes packed.
+     * @throws IOException Throws when a file cannot be read or the bundle cannot be written.
+     */
+    public static int pack(File themeDir, File bundleFile) throws IOException {
+        File[] files = themeDir.listFiles();
+        if (files == null)
+            throw new IOException("Not a folder: " + themeDir.getPath());
+        Arrays.sort(files);
+
+        ThemeParser parser = new ThemeParser(null, themeDir);
+        Map<String, File> themeFiles = new LinkedHashMap<>();
+        Map<String, File> imageFiles = new LinkedHashMap<>();
+        String[] lineTokens = new String[3];
+        for (File file : files) {
+            if (file.isDirectory() || !file.getName().endsWith(".dat"))
+                continue;
+            themeFiles.put(file.getName(), file);
+            for (String line : Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)) {
+                if (ThemeParser.tokenize(line, lineTokens) != 3 || !"MetaData".equalsIgnoreCase(lineTokens[0]))
+                    continue;
+                if (lineTokens[1].equals("icon") || lineTokens[1].equals("avatar")) {
+                    File image = parser.resolveImage(file, lineTokens[2]);
+                    if (image.isFile())
+                        imageFiles.putIfAbsent(lineTokens[2], image);
+                }
+            }
+        }
+
+        List<byte[]> names = new ArrayList<>();
+        long headerSize = 16;
+        for (String name : concat(themeFiles.keySet(), imageFiles.keySet())) {
+            byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+            if (encoded.length > 0xffff)
+                throw new IOException("Name is too long for a theme bundle: " + name);
+            names.add(encoded);
+            headerSize += 2 + encoded.length + 8;
+        }
+
+        File tempFile = new File(bundleFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(tempFile))) {
+            ByteArrayOutputStream header = new ByteArrayOutputStream((int) headerSize);
+            DataOutputStream index = new DataOutputStream(header);
+            index.writeInt(MAGIC);
+            index.writeInt(FORMAT_VERSION);
+            index.writeInt(themeFiles.size());
+            index.writeInt(imageFiles.size());
+            long offset = headerSize;
+            int i = 0;
+            for (File entry : concat(themeFiles.values(), imageFiles.values())) {
+                long length = entry.length();
+                if (offset + length > Integer.MAX_VALUE)
+                    throw new IOException("Theme bundles cannot be larger than 2 GiB");
+                byte[] name = names.get(i++);
+                index.writeShort(name.length);
+                index.write(name);
+                index.writeInt((int) offset);
+                index.writeInt((int) length);
+                offset += length;
+            }
+            header.writeTo(out);
+            for (File entry : concat(themeFiles.values(), imageFiles.values()))
+                Files.copy(entry.toPath(), out);
+        }
+        Files.move(tempFile.toPath(), bundleFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return themeFiles.size();
+    }
+
+    private static <T> List<T> concat(Iterable<T> first, Iterable<T> second) {
+        List<T> all = new ArrayList<>();
+        first.forEach(all::add);
+        second.forEach(all::add);
+        return all;
+    }
+
+    /**
+     * @return The bundle file.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return The file names of the themes in the bundle, such as "night.dat".
+     */
+    @Override
+    public Set<String> getThemeFileNames() {
+        return themes.keySet();
+    }
+
+    /**
+     * @param fileName The file name of the theme, such as "night.dat".
+     * @return Returns a read-only slice of the theme file or null if the bundle does not contain it.
+     */
+    @CheckForNull
+    @Override
+    public ByteBuffer readTheme(String fileName) {
+        return slice(themes.get(fileName));
+    }
+
+    /**
+     * @param imageName The name of the image as used in the icon or avatar MetaData.
+     * @return Returns true if the bundle contains the image.
+     */
+    @Override
+    public boolean hasImage(String imageName) {
+        return images.containsKey(imageName);
+    }
+
+    /**
+     * @param imageName The name of the image as used in the icon or avatar MetaData.
+     * @return Returns a read-only slice of the png image or null if the bundle does not contain it.
+     */
+    @CheckForNull
+    @Override
+    public ByteBuffer readImage(String imageName) {
+        return slice(images.get(imageName));
+    }
+
+    @CheckForNull
+    private ByteBuffer slice(Slice slice) {
+        if (slice == null)
+            return null;
+        ByteBuffer view = buffer.asReadOnlyBuffer();
+        view.position(slice.offset);
+        view.limit(slice.offset + slice.length);
+        return view.slice();
+    }
+
+    /**
+     * @return An input stream over a buffer which reads the buffer in place.
+     */
+    static InputStream stream(ByteBuffer buffer) {
+        ByteBuffer data = buffer.duplicate();
+        return new InputStream() {
+            @Override
+            public int read() {
+                return data.hasRemaining() ? data.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read(byte[] bytes, int offset, int length) {
+                if (length == 0)
+                    return 0;
+                if (!data.hasRemaining())
+                    return -1;
+                int count = Math.min(length, data.remaining());
+                data.get(bytes, offset, count);
+                return count;
+            }
+
+            @Override
+            public int available() {
+                return data.remaining();
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return file.getAbsolutePath();
+    }
+
+    private static class Slice {
+        private final int offset;
+        private final int length;
+
+        private Slice(int offset, int length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+}
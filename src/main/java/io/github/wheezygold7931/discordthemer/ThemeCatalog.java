@@ -0,0 +1,806 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.metrics.ThemerListener;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.entities.Guild;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * The parsed themes of a theme folder and, optionally, another {@link ThemeSource} such as a {@link ThemeBundle}.
+ * A catalog is loaded once and can be shared by the themers of many guilds, the {@link ThemeToken}s it holds are never modified after parsing.
+ * When the catalog belongs to a single guild the role ids of each theme are validated against that guild, otherwise role ids are resolved by each guild when a theme is applied.
+ *
+ * <p>Concurrency: the registered themes are held in an immutable snapshot in a volatile field.
+ * Reads ({@link ThemeCatalog#get(String)}, {@link ThemeCatalog#contains(String)}, {@link ThemeCatalog#getThemeNames()} and {@link ThemeCatalog#snapshot()}) never take a lock and may be called from any thread, such as JDA event threads.
+ * Writes (loading, reloading and {@link DiscordThemer#captureServer(String, boolean)}) are serialized on a private lock, build a new snapshot and publish it in one step,
+ * so a reader sees either the old or the new set of themes and never a partial update. Each read sees the latest published snapshot;
+ * callers which need several reads to agree should take one {@link ThemeCatalog#snapshot()} and read from it.</p>
+ *
+ * <p>When another source is set the theme files in the theme folder are loaded as well and replace the source's themes with the same file name,
+ * so captured and edited themes do not require packing a bundle or jar again. Only the theme folder is watched for changes.</p>
+ *
+ * <p>With lazy loading ({@link DiscordThemerBuilder#setLazyLoading(int)}) only an index of theme names and display names is read when the catalog is loaded.
+ * A theme is parsed by the first {@link ThemeCatalog#get(String)} asking for it, on the calling thread, and kept in a bounded LRU cache of parsed themes.
+ * Themes which fail validation are only noticed then, {@link ThemeCatalog#contains(String)} answers from the index.</p>
+ *
+ * <p>Themes which declare a parent are linked to it whenever the theme map changes, see {@link ThemeToken#inherit(ThemeToken)}.
+ * A theme whose parent is missing or which is part of an inheritance cycle is not registered until its parent can be resolved.</p>
+ *
+ * <p>Alongside the theme map the catalog keeps a reverse index from role id to the themes whose file references it, including roles the parser skipped because they were not in the guild.
+ * When a role of the validation guild is created or deleted only the themes referencing it are parsed again, see {@link ThemeCatalog#revalidateRole(long, long)}.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public class ThemeCatalog {
+
+    private final File themeDir;
+    private final ThemeSource source;
+    @Nullable
+    private final ImagePipeline images;
+    @Nullable
+    private final Guild validationGuild;
+    private final ThemeParser parser;
+    private final int loadThreads;
+    @Nullable
+    private final Executor loadExecutor;
+    @Nullable
+    private final File compiledCacheFile;
+    private final int maxLoadedThemes;
+    private final DiscordThemerLogger logger;
+    private final ThemerListener listener;
+
+    /**
+     * An immutable snapshot of the registered themes, writers build a new map under {@link ThemeCatalog#writeLock} and swap it in.
+     */
+    private volatile Map<String, ThemeToken> themeMap = Collections.emptyMap();
+    /**
+     * The themes as parsed, before they are linked to their parents. Includes themes whose parent cannot be resolved.
+     */
+    private volatile Map<String, ThemeToken> declaredThemes = Collections.emptyMap();
+    /**
+     * Role id to the names of the themes referencing it, published together with {@link ThemeCatalog#themeMap}.
+     */
+    private volatile Map<Long, Set<String>> roleIndex = Collections.emptyMap();
+    /**
+     * Theme name to the role ids its file references, only used by writers to take themes out of the role index.
+     */
+    private final Map<String, long[]> themeRoles = new HashMap<>();
+    /**
+     * Lazy loading only: theme name to display name of every theme in the source, published like {@link ThemeCatalog#themeMap}.
+     */
+    private volatile Map<String, String> themeIndex = Collections.emptyMap();
+    /**
+     * Lazy loading only: the parsed themes, least recently used first. Guarded by itself.
+     */
+    private final LinkedHashMap<String, LoadedTheme> loadedThemes;
+    /**
+     * Lazy loading only: bumped whenever loaded themes are evicted, so a parse which raced an eviction is not cached. Guarded by {@link ThemeCatalog#loadedThemes}.
+     */
+    private long loadGeneration = 0;
+    private final Object writeLock = new Object();
+    @Nullable
+    private ThemeFolderWatcher watcher;
+
+    /**
+     * Protected Constructor to be used internally only.
+     */
+    protected ThemeCatalog(File themeDir, @Nullable ThemeSource source, @Nullable Guild validationGuild, int loadThreads, @Nullable Executor loadExecutor, @Nullable File compiledCacheFile,
+                           int maxLoadedThemes, int maxImageDimension, int maxImageBytes, boolean watchThemeFolder, ThemerListener listener, DiscordThemerLogger logger) {
+        this.themeDir = themeDir;
+        ThemeSource themes = source == null ? new DirectoryThemeSource(themeDir) : new LayeredThemeSource(new DirectoryThemeSource(themeDir), source);
+        this.images = maxImageDimension > 0
+                ? new ImagePipeline(themes, new File(themeDir, "optimized"), maxImageDimension, maxImageBytes, Math.max(1, loadThreads / 2), logger)
+                : null;
+        this.source = images != null ? images : themes;
+        this.validationGuild = validationGuild;
+        this.parser = new ThemeParser(validationGuild, themeDir, this.source);
+        this.loadThreads = loadThreads;
+        this.loadExecutor = loadExecutor;
+        this.compiledCacheFile = compiledCacheFile;
+        this.maxLoadedThemes = maxLoadedThemes;
+        this.loadedThemes = new LinkedHashMap<String, LoadedTheme>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, LoadedTheme> eldest) {
+                return size() > maxLoadedThemes;
+            }
+        };
+        this.logger = logger;
+        this.listener = listener;
+        processThemes();
+        if (watchThemeFolder) {
+            watcher = new ThemeFolderWatcher(this, themeDir.toPath(), logger);
+            try {
+                watcher.start();
+            } catch (IOException e) {
+                logger.error("Could not watch the theme folder for changes: " + e.getMessage());
+                watcher = null;
+            }
+        }
+    }
+
+    private boolean isLazy() {
+        return maxLoadedThemes > 0;
+    }
+
+    /**
+     * Runs through processing all the theme files of the source.
+     * Files are parsed on the load executor, their results are merged into the theme map and logged in file order on this thread.
+     * With lazy loading only the index is read, see {@link ThemeCatalog#indexThemes(List)}.
+     */
+    private void processThemes() {
+        logger.info("Loading and Parsing Themes...");
+
+        List<String> themeFiles = new ArrayList<>();
+        try {
+            themeFiles.addAll(source.getThemeFileNames());
+        } catch (IOException e) {
+            logger.error("Could not list the themes of " + source + ": " + e.getMessage());
+        }
+
+        if (themeFiles.isEmpty()) {
+            logger.error("No themes are in the theme directory!");
+            return;
+        }
+        if (isLazy()) {
+            indexThemes(themeFiles);
+            return;
+        }
+
+        long start = System.nanoTime();
+        CompiledThemeCache cache = compiledCacheFile == null ? null : CompiledThemeCache.load(compiledCacheFile, validationGuild, logger);
+        long parseNanos = 0;
+        int cacheHits = 0;
+        ParsedTheme slowest = null;
+        Map<String, ThemeToken> parsedThemes = new HashMap<>();
+        Map<String, long[]> parsedRoles = new HashMap<>();
+        List<ParsedTheme> results = forEachFile(themeFiles, fileName -> parseThemeFile(fileName, cache));
+        for (int i = 0; i < results.size(); i++) {
+            ParsedTheme parsed = results.get(i);
+            if (parsed == null) {
+                logger.perror("File Mismatch! Did the GC steal the file?", themeFiles.get(i));
+                continue;
+            }
+            parsed.logger.flush();
+            parseNanos += parsed.nanos;
+            if (slowest == null || parsed.nanos > slowest.nanos)
+                slowest = parsed;
+            if (parsed.cached)
+                cacheHits++;
+            if (parsed.token != null) {
+                parsedThemes.put(parsed.token.getThemeName(), parsed.token);
+                parsedRoles.put(parsed.token.getThemeName(), parsed.roleIds);
+            }
+        }
+        update(declaredThemes.keySet(), parsedThemes, parsedRoles);
+        if (cache != null)
+            cache.save();
+        long wallNanos = System.nanoTime() - start;
+        int registered = themeMap.size();
+        listener.onThemesLoaded(registered, themeFiles.size() - registered, wallNanos);
+
+        logger.info("Loaded and Parsed a total of " + registered + " themes in " + TimeUnit.NANOSECONDS.toMillis(wallNanos) + "ms!");
+        if (slowest != null && logger.isDebugEnabled())
+            logger.debug("Parsing took " + TimeUnit.NANOSECONDS.toMillis(parseNanos) + "ms across " + themeFiles.size() + " files (average " + TimeUnit.NANOSECONDS.toMicros(parseNanos / themeFiles.size()) + "us, slowest " + slowest.fileName + " at " + TimeUnit.NANOSECONDS.toMicros(slowest.nanos) + "us)");
+        if (cache != null && logger.isDebugEnabled())
+            logger.debug(cacheHits + " of " + themeFiles.size() + " themes were loaded from the compiled theme cache.");
+        if (logger.isDebugEnabled()) {
+            logger.debug("Loaded Themes:");
+            for (ThemeToken token : themeMap.values())
+                logger.debug("    - " + token.getThemeName() + " (" + token.getThemeDisplayName() + ") (Parser: " + token.getParserVersion().getVersionString() + ")"
+                        + (token.getParentName() == null ? "" : " (Parent: " + token.getParentName() + ")"));
+        }
+    }
+
+    /**
+     * Reads the display name of every theme into the index, the themes themselves are parsed when they are first used.
+     */
+    private void indexThemes(List<String> themeFiles) {
+        long start = System.nanoTime();
+        List<String> displayNames = forEachFile(themeFiles, this::readDisplayName);
+        Map<String, String> index = new LinkedHashMap<>();
+        for (int i = 0; i < themeFiles.size(); i++) {
+            if (displayNames.get(i) != null)
+                index.put(themeName(themeFiles.get(i)), displayNames.get(i));
+        }
+        synchronized (writeLock) {
+            themeIndex = Collections.unmodifiableMap(index);
+        }
+        evict(null);
+        long wallNanos = System.nanoTime() - start;
+        listener.onThemesLoaded(index.size(), themeFiles.size() - index.size(), wallNanos);
+
+        logger.info("Indexed a total of " + index.size() + " themes in " + TimeUnit.NANOSECONDS.toMillis(wallNanos) + "ms, they are parsed when first used!");
+        if (logger.isDebugEnabled()) {
+            logger.debug("Indexed Themes:");
+            for (Map.Entry<String, String> entry : index.entrySet())
+                logger.debug("    - " + entry.getKey() + " (" + entry.getValue() + ")");
+        }
+    }
+
+    /**
+     * Runs a task for every theme file on the load executor.
+     * @return The results in file order.
+     */
+    private <T> List<T> forEachFile(List<String> themeFiles, Function<String, T> task) {
+        ExecutorService ownExecutor = null;
+        Executor executor = loadExecutor;
+        if (executor == null) {
+            if (loadThreads > 1 && themeFiles.size() > 1) {
+                ownExecutor = Executors.newFixedThreadPool(Math.min(loadThreads, themeFiles.size()), runnable -> {
+                    Thread thread = new Thread(runnable, "discord-themer-loader");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                executor = ownExecutor;
+            } else {
+                executor = Runnable::run;
+            }
+        }
+
+        try {
+            List<CompletableFuture<T>> futures = new ArrayList<>(themeFiles.size());
+            for (String fileName : themeFiles)
+                futures.add(CompletableFuture.supplyAsync(() -> task.apply(fileName), executor));
+            List<T> results = new ArrayList<>(themeFiles.size());
+            for (CompletableFuture<T> future : futures)
+                results.add(future.join());
+            return results;
+        } finally {
+            if (ownExecutor != null)
+                ownExecutor.shutdown();
+        }
+    }
+
+    /**
+     * @return Returns the display name of a theme file or null if it is not in the source or declares none.
+     */
+    @CheckForNull
+    private String readDisplayName(String fileName) {
+        try {
+            ByteBuffer content = source.readTheme(fileName);
+            if (content == null)
+                return null;
+            String displayName = ThemeParser.readDisplayName(content);
+            if (displayName == null)
+                logger.perror("Theme name not provided in metadata!", fileName);
+            return displayName;
+        } catch (IOException e) {
+            logger.perror("File Mismatch! Did the GC steal the file?", fileName);
+            return null;
+        }
+    }
+
+    private static String themeName(String fileName) {
+        return fileName.substring(0, fileName.lastIndexOf('.'));
+    }
+
+    /**
+     * Parses a single theme file with its own buffered logger, this is safe to run on any thread.
+     * When a compiled cache is given unchanged files are taken from it instead of going through the parser.
+     * Files which are not read into the heap, such as bundled themes, are parsed in place and never cached, reading them is as cheap as reading the cache.
+     * @return Returns the result or null if the file is not in the source (anymore).
+     */
+    @CheckForNull
+    private ParsedTheme parseThemeFile(String fileName, @Nullable CompiledThemeCache cache) {
+        File file = new File(themeDir, fileName);
+        DiscordThemerLogger fileLogger = logger.buffered();
+        if (fileLogger.isDebugEnabled())
+            fileLogger.debug("Sending file to parser: " + fileName);
+        long start = System.nanoTime();
+        ThemeToken token = null;
+        boolean cached = false;
+        List<String> invalidRoleIds = new ArrayList<>();
+        try {
+            ByteBuffer content = source.readTheme(fileName);
+            if (content == null)
+                return null;
+            if (cache == null || !content.hasArray() || content.arrayOffset() != 0 || content.remaining() != content.array().length) {
+                token = parser.parse(file, content, fileLogger, invalidRoleIds);
+            } else {
+                byte[] bytes = content.array();
+                token = cache.lookup(file, bytes, validationGuild, invalidRoleIds, fileLogger);
+                if (token != null && !parser.checkImages(file, token, fileLogger)) {
+                    //The images are not part of the cache key, they may have been deleted or renamed since
+                    token = null;
+                } else if (token != null) {
+                    cached = true;
+                } else {
+                    invalidRoleIds.clear();
+                    token = parser.parse(file, bytes, fileLogger, invalidRoleIds);
+                    //The warnings are stored with the theme so a cache hit reports them again
+                    if (token != null)
+                        cache.store(file, bytes, token, invalidRoleIds, fileLogger.getProblems());
+                }
+            }
+        } catch (IOException e) {
+            fileLogger.perror("File Mismatch! Did the GC steal the file?", fileName);
+        } catch (RuntimeException e) {
+            fileLogger.perror("Error while parsing theme: " + e, fileName);
+        }
+        long nanos = System.nanoTime() - start;
+        listener.onThemeParsed(fileName, token, nanos, cached);
+        if (token != null && images != null)
+            images.prepare(token);
+        if (token == null)
+            fileLogger.pdebug("Theme failed validation!", fileName);
+        else if (fileLogger.isDebugEnabled())
+            fileLogger.pdebug((cached ? "Loaded from compiled cache in " : "Parsed in ") + TimeUnit.NANOSECONDS.toMicros(nanos) + "us", fileName);
+        return new ParsedTheme(fileName, token, token == null ? null : referencedRoles(token, invalidRoleIds), fileLogger, nanos, cached);
+    }
+
+    /**
+     * @return The ids of the roles of a token plus the skipped role ids which could still be created later, sorted.
+     */
+    private static long[] referencedRoles(ThemeToken token, List<String> invalidRoleIds) {
+        long[] roleIds = new long[token.getRoleCount() + invalidRoleIds.size()];
+        int count = 0;
+        for (int i = 0; i < token.getRoleCount(); i++)
+            roleIds[count++] = token.getRoleId(i);
+        for (String roleId : invalidRoleIds) {
+            if (ThemeParser.isSnowflake(roleId))
+                roleIds[count++] = Long.parseLong(roleId);
+        }
+        roleIds = Arrays.copyOf(roleIds, count);
+        Arrays.sort(roleIds);
+        return roleIds;
+    }
+
+    /**
+     * Validates and parses a theme file in a single pass and registers it in the theme map.
+     * @param file The theme file in question.
+     * @return Returns true if the theme file was valid and has been registered.
+     */
+    boolean loadTheme(File file) {
+        List<String> invalidRoleIds = new ArrayList<>();
+        ThemeToken token = parser.parse(file, logger, invalidRoleIds);
+        if (token == null)
+            return false;
+        if (isLazy()) {
+            synchronized (writeLock) {
+                Map<String, String> index = new LinkedHashMap<>(themeIndex);
+                index.put(token.getThemeName(), token.getThemeDisplayName());
+                themeIndex = Collections.unmodifiableMap(index);
+            }
+            evict(Collections.singleton(token.getThemeName()));
+            return cache(token, referencedRoles(token, invalidRoleIds), new HashSet<>()) != null;
+        }
+        update(Collections.emptySet(), Collections.singletonMap(token.getThemeName(), token),
+                Collections.singletonMap(token.getThemeName(), referencedRoles(token, invalidRoleIds)));
+        return true;
+    }
+
+    /**
+     * Re-parses changed theme files and swaps the result into the theme map in one step.
+     * Themes whose file was deleted or no longer passes validation are unregistered.
+     * @param fileNames The names of the theme files which were created, modified or deleted.
+     * @param rescan If true the whole theme folder is re-parsed and fileNames is ignored.
+     */
+    void reloadThemes(Set<String> fileNames, boolean rescan) {
+        Set<String> targets = new LinkedHashSet<>(fileNames);
+        if (rescan) {
+            targets.clear();
+            for (String themeName : (isLazy() ? themeIndex : declaredThemes).keySet())
+                targets.add(themeName + ".dat");
+            try {
+                targets.addAll(source.getThemeFileNames());
+            } catch (IOException e) {
+                logger.error("Could not list the themes of " + source + ", only known themes are reloaded: " + e.getMessage());
+            }
+        }
+        if (isLazy()) {
+            reindexThemes(targets);
+            return;
+        }
+
+        Map<String, ThemeToken> parsedThemes = new HashMap<>();
+        Map<String, long[]> parsedRoles = new HashMap<>();
+        Set<String> removedThemes = new HashSet<>();
+        for (String fileName : targets) {
+            String themeName = themeName(fileName);
+            ParsedTheme parsed = parseThemeFile(fileName, null);
+            if (parsed != null)
+                parsed.logger.flush();
+            if (parsed == null || parsed.token == null) {
+                removedThemes.add(themeName);
+            } else {
+                parsedThemes.put(themeName, parsed.token);
+                parsedRoles.put(themeName, parsed.roleIds);
+            }
+        }
+
+        update(removedThemes, parsedThemes, parsedRoles);
+        logger.info("Reloaded themes: " + parsedThemes.size() + " updated, " + removedThemes.size() + " removed.");
+    }
+
+    /**
+     * Lazy loading only: reads the display names of changed theme files into the index and evicts the changed themes and their children.
+     */
+    private void reindexThemes(Set<String> fileNames) {
+        Map<String, String> displayNames = new HashMap<>();
+        Set<String> themeNames = new HashSet<>();
+        for (String fileName : fileNames) {
+            themeNames.add(themeName(fileName));
+            String displayName = readDisplayName(fileName);
+            if (displayName != null)
+                displayNames.put(themeName(fileName), displayName);
+        }
+        synchronized (writeLock) {
+            Map<String, String> index = new LinkedHashMap<>(themeIndex);
+            index.keySet().removeAll(themeNames);
+            index.putAll(displayNames);
+            themeIndex = Collections.unmodifiableMap(index);
+        }
+        evict(themeNames);
+        logger.info("Reloaded themes: " + displayNames.size() + " updated, " + (themeNames.size() - displayNames.size()) + " removed.");
+    }
+
+    /**
+     * Re-parses the themes which reference a role after it was created or deleted in the validation guild.
+     * Deleted roles are dropped from the themes, created roles which the parser had skipped are picked up.
+     * Other themes are left alone. This does nothing for catalogs which do not validate role ids or belong to another guild.
+     * @param guildId The id of the guild the role belongs to.
+     * @param roleId The id of the created or deleted role.
+     */
+    void revalidateRole(long guildId, long roleId) {
+        if (validationGuild == null || validationGuild.getIdLong() != guildId)
+            return;
+        if (isLazy()) {
+            //Evicted themes are parsed again, against the current roles, when they are used next
+            Set<String> themeNames = getThemesReferencingRole(roleId);
+            if (!themeNames.isEmpty()) {
+                logger.debug(() -> "Role ID " + roleId + " changed, evicting " + themeNames.size() + " loaded themes.");
+                evict(themeNames);
+            }
+            return;
+        }
+        Set<String> themeNames = roleIndex.get(roleId);
+        if (themeNames == null)
+            return;
+        Set<String> fileNames = new LinkedHashSet<>();
+        for (String themeName : themeNames)
+            fileNames.add(themeName + ".dat");
+        logger.debug(() -> "Role ID " + roleId + " changed, revalidating " + fileNames.size() + " themes.");
+        reloadThemes(fileNames, false);
+    }
+
+    /**
+     * Publishes a new snapshot of the theme map and role index. Writers are serialized, readers are never blocked.
+     * Every theme with a parent is linked again, so children pick up changes to their parents.
+     * @param removed The names of the themes to unregister.
+     * @param added The themes to register, replacing registered themes with the same name.
+     * @param addedRoles The role ids referenced by each added theme.
+     */
+    private void update(Collection<String> removed, Map<String, ThemeToken> added, Map<String, long[]> addedRoles) {
+        synchronized (writeLock) {
+            Map<String, ThemeToken> previous = declaredThemes;
+            Map<String, ThemeToken> declared = new HashMap<>(previous);
+            declared.keySet().removeAll(removed);
+            declared.putAll(added);
+
+            Map<String, ThemeToken> linked = new HashMap<>();
+            Set<String> failed = new HashSet<>();
+            for (String themeName : declared.keySet())
+                link(themeName, declared, previous, added.keySet(), linked, failed, new HashSet<>());
+
+            Map<Long, Set<String>> index = new HashMap<>(roleIndex);
+            Set<Long> copied = new HashSet<>();
+            for (String themeName : removed)
+                unindex(index, copied, themeName);
+            for (Map.Entry<String, long[]> entry : addedRoles.entrySet()) {
+                unindex(index, copied, entry.getKey());
+                for (long roleId : entry.getValue())
+                    writableSet(index, copied, roleId).add(entry.getKey());
+                themeRoles.put(entry.getKey(), entry.getValue());
+            }
+
+            declaredThemes = Collections.unmodifiableMap(declared);
+            themeMap = Collections.unmodifiableMap(linked);
+            roleIndex = Collections.unmodifiableMap(index);
+        }
+    }
+
+    /**
+     * Links a theme and, first, its parent chain.
+     * @param previous The declared themes of the last update, an unchanged theme keeps its linked token if its parent is unchanged as well.
+     * @param added The names of the themes added by this update, failures are only logged for them and for themes which were registered.
+     * @param chain The themes currently being linked, to detect cycles.
+     * @return Returns the linked token or null if the theme or one of its parents cannot be resolved.
+     */
+    @CheckForNull
+    private ThemeToken link(String themeName, Map<String, ThemeToken> declared, Map<String, ThemeToken> previous, Set<String> added,
+                            Map<String, ThemeToken> linked, Set<String> failed, Set<String> chain) {
+        ThemeToken token = linked.get(themeName);
+        if (token != null || failed.contains(themeName))
+            return token;
+        token = declared.get(themeName);
+        if (token == null)
+            return null;
+
+        String parentName = token.getParentName();
+        if (parentName != null) {
+            if (!chain.add(themeName)) {
+                failed.add(themeName);
+                if (added.contains(themeName) || themeMap.containsKey(themeName))
+                    logger.error("Theme " + themeName + " inherits from itself through its parents, it will not be registered!");
+                return null;
+            }
+            ThemeToken parent = link(parentName, declared, previous, added, linked, failed, chain);
+            chain.remove(themeName);
+            if (parent == null) {
+                if (failed.add(themeName) && (added.contains(themeName) || themeMap.containsKey(themeName)))
+                    logger.warn("Parent theme " + parentName + " of " + themeName + (declared.containsKey(parentName) ? " could not be linked" : " is not registered")
+                            + ", " + themeName + " will be registered once it is.");
+                return null;
+            }
+            ThemeToken registered = themeMap.get(themeName);
+            if (registered != null && previous.get(themeName) == token)
+                token = registered;
+            token = token.inherit(parent);
+        }
+        linked.put(themeName, token);
+        return token;
+    }
+
+    private void unindex(Map<Long, Set<String>> index, Set<Long> copied, String themeName) {
+        long[] roleIds = themeRoles.remove(themeName);
+        if (roleIds == null)
+            return;
+        for (long roleId : roleIds) {
+            Set<String> themes = writableSet(index, copied, roleId);
+            themes.remove(themeName);
+            if (themes.isEmpty())
+                index.remove(roleId);
+        }
+    }
+
+    /**
+     * Sets of the published index are never modified, each one is copied the first time an update touches it.
+     */
+    private static Set<String> writableSet(Map<Long, Set<String>> index, Set<Long> copied, long roleId) {
+        Set<String> themes = index.get(roleId);
+        if (themes == null) {
+            themes = new HashSet<>();
+            copied.add(roleId);
+            index.put(roleId, themes);
+        } else if (copied.add(roleId)) {
+            themes = new HashSet<>(themes);
+            index.put(roleId, themes);
+        }
+        return themes;
+    }
+
+    /**
+     * Lazy loading only: gets a parsed theme, parsing it and its parent chain if they are not loaded.
+     * @param chain The themes currently being loaded, to detect cycles.
+     */
+    @CheckForNull
+    private ThemeToken load(String themeName, Set<String> chain) {
+        long generation;
+        synchronized (loadedThemes) {
+            LoadedTheme loaded = loadedThemes.get(themeName);
+            if (loaded != null)
+                return loaded.token;
+            generation = loadGeneration;
+        }
+        if (!themeIndex.containsKey(themeName))
+            return null;
+        ParsedTheme parsed = parseThemeFile(themeName + ".dat", null);
+        if (parsed == null)
+            return null;
+        parsed.logger.flush();
+        if (parsed.token == null)
+            return null;
+        return cache(parsed.token, parsed.roleIds, chain, generation);
+    }
+
+    @CheckForNull
+    private ThemeToken cache(ThemeToken token, long[] roleIds, Set<String> chain) {
+        long generation;
+        synchronized (loadedThemes) {
+            generation = loadGeneration;
+        }
+        return cache(token, roleIds, chain, generation);
+    }
+
+    /**
+     * Lazy loading only: links a parsed theme to its parent chain and keeps it, unless themes were evicted since it was read.
+     * @param generation The load generation from before the theme was read.
+     * @return Returns the linked token or null if one of its parents cannot be loaded.
+     */
+    @CheckForNull
+    private ThemeToken cache(ThemeToken token, long[] roleIds, Set<String> chain, long generation) {
+        String themeName = token.getThemeName();
+        String parentName = token.getParentName();
+        if (parentName != null) {
+            if (!chain.add(themeName)) {
+                logger.error("Theme " + themeName + " inherits from itself through its parents, it cannot be used!");
+                return null;
+            }
+            ThemeToken parent = load(parentName, chain);
+            chain.remove(themeName);
+            if (parent == null) {
+                logger.warn("Parent theme " + parentName + " of " + themeName + (themeIndex.containsKey(parentName) ? " could not be loaded" : " is not registered")
+                        + ", " + themeName + " cannot be used until it is.");
+                return null;
+            }
+            token = token.inherit(parent);
+        }
+        synchronized (loadedThemes) {
+            if (generation == loadGeneration)
+                loadedThemes.put(themeName, new LoadedTheme(token, roleIds));
+        }
+        return token;
+    }
+
+    /**
+     * Lazy loading only: drops loaded themes so they are parsed again when they are used next.
+     * @param themeNames The themes to drop along with every loaded theme inheriting from one of them, or null to drop every theme.
+     */
+    private void evict(@Nullable Collection<String> themeNames) {
+        synchronized (loadedThemes) {
+            loadGeneration++;
+            if (themeNames == null) {
+                loadedThemes.clear();
+                return;
+            }
+            loadedThemes.values().removeIf(loaded -> {
+                for (ThemeToken token = loaded.token; token != null; token = token.getParent()) {
+                    if (themeNames.contains(token.getThemeName()))
+                        return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    /**
+     * Stops watching the theme folder, if {@link DiscordThemerBuilder#setWatchThemeFolder(boolean)} was enabled, and stops preparing images in the background.
+     */
+    public void shutdown() {
+        if (images != null)
+            images.shutdown();
+        if (watcher != null) {
+            watcher.close();
+            watcher = null;
+        }
+    }
+
+    /**
+     * @return The source the themes and their images are read from, the theme folder in front of the configured source.
+     */
+    public ThemeSource getSource() {
+        return source;
+    }
+
+    /**
+     * @return The folder the themes are loaded from, captured themes and snapshots are written to it.
+     */
+    public File getThemeDir() {
+        return themeDir;
+    }
+
+    /**
+     * @param themeName The theme name in question.
+     * @return Returns true if the theme is registered.
+     */
+    public boolean contains(String themeName) {
+        return isLazy() ? themeIndex.containsKey(themeName) : themeMap.containsKey(themeName);
+    }
+
+    /**
+     * With lazy loading a theme which is not loaded yet is parsed on the calling thread.
+     * @param themeName The theme name in question.
+     * @return Returns the theme's token or null if it is not registered.
+     */
+    @CheckForNull
+    public ThemeToken get(String themeName) {
+        return isLazy() ? load(themeName, new HashSet<>()) : themeMap.get(themeName);
+    }
+
+    /**
+     * Reads the display name without parsing the theme, also with lazy loading.
+     * @param themeName The theme name in question.
+     * @return Returns the display name of the theme or null if it is not registered.
+     */
+    @CheckForNull
+    public String getDisplayName(String themeName) {
+        if (isLazy())
+            return themeIndex.get(themeName);
+        ThemeToken token = themeMap.get(themeName);
+        return token == null ? null : token.getThemeDisplayName();
+    }
+
+    /**
+     * @return The names of all registered themes, as of the latest snapshot.
+     */
+    public Set<String> getThemeNames() {
+        return isLazy() ? themeIndex.keySet() : themeMap.keySet();
+    }
+
+    /**
+     * With lazy loading only the loaded themes are known.
+     * @param roleId The role id in question.
+     * @return Returns the names of the themes whose file references the role, including themes which skipped it because it was not in the guild.
+     */
+    public Set<String> getThemesReferencingRole(long roleId) {
+        if (isLazy()) {
+            Set<String> themeNames = new HashSet<>();
+            synchronized (loadedThemes) {
+                for (Map.Entry<String, LoadedTheme> entry : loadedThemes.entrySet()) {
+                    if (Arrays.binarySearch(entry.getValue().roleIds, roleId) >= 0)
+                        themeNames.add(entry.getKey());
+                }
+            }
+            return Collections.unmodifiableSet(themeNames);
+        }
+        Set<String> themeNames = roleIndex.get(roleId);
+        return themeNames == null ? Collections.emptySet() : Collections.unmodifiableSet(themeNames);
+    }
+
+    /**
+     * @return An immutable map of every registered theme, later reloads do not change it. With lazy loading only the loaded themes.
+     */
+    public Map<String, ThemeToken> snapshot() {
+        if (isLazy()) {
+            Map<String, ThemeToken> loaded = new HashMap<>();
+            synchronized (loadedThemes) {
+                for (Map.Entry<String, LoadedTheme> entry : loadedThemes.entrySet())
+                    loaded.put(entry.getKey(), entry.getValue().token);
+            }
+            return Collections.unmodifiableMap(loaded);
+        }
+        return themeMap;
+    }
+
+    private static class ParsedTheme {
+        private final String fileName;
+        @Nullable
+        private final ThemeToken token;
+        @Nullable
+        private final long[] roleIds;
+        private final DiscordThemerLogger logger;
+        private final long nanos;
+        private final boolean cached;
+
+        private ParsedTheme(String fileName, @Nullable ThemeToken token, @Nullable long[] roleIds, DiscordThemerLogger logger, long nanos, boolean cached) {
+            this.fileName = fileName;
+            this.token = token;
+            this.roleIds = roleIds;
+            this.logger = logger;
+            this.nanos = nanos;
+            this.cached = cached;
+        }
+    }
+
+    private static class LoadedTheme {
+        private final ThemeToken token;
+        private final long[] roleIds;
+
+        private LoadedTheme(ThemeToken token, long[] roleIds) {
+            this.token = token;
+            this.roleIds = roleIds;
+        }
+    }
+
+}
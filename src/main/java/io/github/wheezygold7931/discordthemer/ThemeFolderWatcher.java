@@ -0,0 +1,91 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches the theme folder and hands created, modified and deleted theme files to {@link ThemeCatalog#reloadThemes(Set, boolean)}.
+ * Events are collected until the folder has been quiet for a short while so editors which save in several steps only cause one reload.
+ */
+class ThemeFolderWatcher implements Runnable {
+
+    private static final long QUIET_PERIOD_MILLIS = 250;
+
+    private final ThemeCatalog catalog;
+    private final Path themeDir;
+    private final DiscordThemerLogger logger;
+
+    private WatchService watchService;
+
+    ThemeFolderWatcher(ThemeCatalog catalog, Path themeDir, DiscordThemerLogger logger) {
+        this.catalog = catalog;
+        this.themeDir = themeDir;
+        this.logger = logger;
+    }
+
+    void start() throws IOException {
+        watchService = themeDir.getFileSystem().newWatchService();
+        themeDir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        Thread thread = new Thread(this, "discord-themer-watcher");
+        thread.setDaemon(true);
+        thread.start();
+        logger.debug("Watching the theme folder for changes.");
+    }
+
+    void close() {
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            logger.warn("Could not stop watching the theme folder: " + e.getMessage());
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (true) {
+                Set<String> changed = new LinkedHashSet<>();
+                boolean overflow = collect(watchService.take(), changed);
+
+                WatchKey key;
+                while ((key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS)) != null)
+                    overflow |= collect(key, changed);
+
+                if (overflow || !changed.isEmpty())
+                    catalog.reloadThemes(changed, overflow);
+            }
+        } catch (ClosedWatchServiceException | InterruptedException e) {
+            logger.debug("Stopped watching the theme folder.");
+        } catch (RuntimeException e) {
+            logger.error("The theme folder watcher has stopped because of an error: " + e);
+        }
+    }
+
+    /**
+     * @return Returns true if events were lost and the whole folder has to be rescanned.
+     */
+    private boolean collect(WatchKey key, Set<String> changed) {
+        boolean overflow = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+                continue;
+            }
+            String fileName = event.context().toString();
+            if (fileName.endsWith(".dat"))
+                changed.add(fileName);
+        }
+        key.reset();
+        return overflow;
+    }
+}
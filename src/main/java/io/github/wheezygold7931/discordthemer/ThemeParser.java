@@ -0,0 +1,308 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import io.github.wheezygold7931.discordthemer.util.ParserVersion;
+import net.dv8tion.jda.api.entities.Guild;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Validates and parses a theme file in a single pass.
+ * Lines are split on ':' by hand instead of through {@link String#split(String)}, trailing empty fields are dropped the same way split drops them.
+ */
+class ThemeParser {
+
+    private static final String META_DATA = "MetaData";
+
+    @Nullable
+    private final Guild guild;
+    private final File themeDir;
+    @Nullable
+    private final ThemeSource source;
+
+    /**
+     * @param guild The guild to validate role ids against, or null to accept every role id.
+     * @param themeDir The theme folder.
+     */
+    ThemeParser(@Nullable Guild guild, File themeDir) {
+        this(guild, themeDir, null);
+    }
+
+    /**
+     * @param guild The guild to validate role ids against, or null to accept every role id.
+     * @param themeDir The theme folder.
+     * @param source The source images are looked up in before the theme folder, or null.
+     */
+    ThemeParser(@Nullable Guild guild, File themeDir, @Nullable ThemeSource source) {
+        this.guild = guild;
+        this.themeDir = themeDir;
+        this.source = source;
+    }
+
+    /**
+     * Reads a theme file, validates it and builds its {@link ThemeToken}.
+     * The parser holds no state between files so it may be called from several threads at once.
+     * @param file The theme file in question.
+     * @param logger The logger to report problems with the file to.
+     * @return Returns the finalized token or null if the theme file is not valid.
+     */
+    @CheckForNull
+    ThemeToken parse(File file, DiscordThemerLogger logger) {
+        return parse(file, logger, null);
+    }
+
+    /**
+     * Reads a theme file, validates it and builds its {@link ThemeToken}.
+     * @param file The theme file in question.
+     * @param logger The logger to report problems with the file to.
+     * @param invalidRoleIds If not null, the ids of roles which are not in the guild are added to it.
+     * @return Returns the finalized token or null if the theme file is not valid.
+     */
+    @CheckForNull
+    ThemeToken parse(File file, DiscordThemerLogger logger, @Nullable Collection<String> invalidRoleIds) {
+        InputStream in;
+        try {
+            in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            logger.perror("File Mismatch! Did the GC steal the file?", file.getName());
+            return null;
+        }
+        return parse(file, in, logger, invalidRoleIds);
+    }
+
+    /**
+     * Parses a theme file which has already been read into memory.
+     * @param file The theme file the content belongs to.
+     * @param content The content of the theme file.
+     * @param logger The logger to report problems with the file to.
+     * @param invalidRoleIds If not null, the ids of roles which are not in the guild are added to it.
+     * @return Returns the finalized token or null if the theme file is not valid.
+     */
+    @CheckForNull
+    ThemeToken parse(File file, byte[] content, DiscordThemerLogger logger, @Nullable Collection<String> invalidRoleIds) {
+        return parse(file, new ByteArrayInputStream(content), logger, invalidRoleIds);
+    }
+
+    /**
+     * Parses a theme file from a buffer, such as a slice of a {@link ThemeBundle} or the content read from a {@link ThemeSource}, without copying it.
+     * @param file The theme file the content belongs to, it does not have to exist.
+     * @param content The content of the theme file.
+     * @param logger The logger to report problems with the file to.
+     * @param invalidRoleIds If not null, the ids of roles which are not in the guild are added to it.
+     * @return Returns the finalized token or null if the theme file is not valid.
+     */
+    @CheckForNull
+    ThemeToken parse(File file, ByteBuffer content, DiscordThemerLogger logger, @Nullable Collection<String> invalidRoleIds) {
+        return parse(file, ThemeBundle.stream(content), logger, invalidRoleIds);
+    }
+
+    @CheckForNull
+    private ThemeToken parse(File file, InputStream in, DiscordThemerLogger logger, @Nullable Collection<String> invalidRoleIds) {
+        String fileName = file.getName(); //Has file extension
+        String themeName = fileName.substring(0, fileName.lastIndexOf('.')); //Remove the file extension from the file
+
+        ThemeToken token = new ThemeToken(themeName);
+        Set<String> roleIds = new HashSet<>();
+        List<String> invalidRoleLines = null;
+        String[] lineTokens = new String[3];
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+            String curLine;
+            while ((curLine = reader.readLine()) != null) {
+                if (curLine.isEmpty())
+                    continue; //User has decided they like increased parsed times...
+
+                char first = curLine.charAt(0);
+                if (first == '/' || first == '#')
+                    continue; // Ignore comments as they will not be used
+
+                int tokenCount = tokenize(curLine, lineTokens);
+                if (tokenCount > 0 && META_DATA.equalsIgnoreCase(lineTokens[0])) {
+                    if (tokenCount != 3) {
+                        logger.perror("Unparseable line: " + curLine, fileName);
+                        return null;
+                    }
+                    token.addMetaData(lineTokens[1], lineTokens[2]);
+                } else {
+                    if (tokenCount != 2) {
+                        logger.perror("Unparseable line: " + curLine, fileName);
+                        return null;
+                    }
+                    if (!isSnowflake(lineTokens[0]) || (guild != null && guild.getRoleById(lineTokens[0]) == null)) {
+                        logger.pwarn("Invalid Role ID: " + lineTokens[0] + "! This will not be parsed.", fileName);
+                        if (invalidRoleLines == null)
+                            invalidRoleLines = new ArrayList<>();
+                        invalidRoleLines.add(curLine);
+                        if (invalidRoleIds != null)
+                            invalidRoleIds.add(lineTokens[0]);
+                        continue;
+                    }
+                    if (!roleIds.add(lineTokens[0])) logger.pwarn("Role ID Duplication Detected! Please only use a role once within a theme file!", fileName);
+                    token.addData(lineTokens[0], lineTokens[1]);
+                }
+            }
+        } catch (IOException e) {
+            logger.perror("Error while reading theme file: " + e.getMessage(), fileName);
+            return null;
+        }
+
+        String parentName = token.getMetaData("parent");
+        if (parentName != null) {
+            if (!ParserVersion.getFromVersionString(token.getMetaData("parser")).supportsInheritance()) {
+                logger.pwarn("Parent themes need parser version 2 or newer, the parent will be ignored!", fileName);
+                parentName = null;
+            } else if (parentName.equals(themeName)) {
+                logger.perror("A theme cannot be its own parent!", fileName);
+                return null;
+            }
+        }
+
+        if (roleIds.isEmpty() && parentName == null) logger.pwarn("There were no valid roles detected! The server will only be themed with MetaData.", fileName);
+
+        String displayName = token.getMetaData("name");
+        if (displayName == null) {
+            logger.perror("Theme name not provided in metadata!", fileName);
+            return null;
+        }
+
+        String parserVersion = token.getMetaData("parser");
+        if (parserVersion == null) {
+            logger.pwarn("Parser Version MetaData no provided, using newest parser.", fileName);
+        } else {
+            if (!ParserVersion.isVersion(parserVersion)) logger.pwarn("Invalid Parser Version! The parser version will be defaulted to the newest one!", fileName);
+        }
+
+        if (!checkImages(file, token, logger))
+            return null;
+        logger.pdebug("Theme Validated!", fileName);
+
+        if (logger.isDebugEnabled())
+            logger.pdebug("Parsing Theme " + fileName + "!", fileName);
+        if (invalidRoleLines != null) {
+            for (String line : invalidRoleLines)
+                logger.perror("Unparseable Role: " + line + " (Invalid Role ID)", fileName);
+        }
+        return token.finalizeToken();
+    }
+
+    /**
+     * Checks that the server icon and avatar of a theme exist in the theme source or next to the theme file.
+     * Themes taken from the compiled theme cache are checked again since their images may have been deleted or renamed since.
+     * @param file The theme file.
+     * @param token The token of the theme file, finalized or not.
+     * @param logger The logger to report missing images to.
+     * @return Returns true if every image of the theme exists.
+     */
+    boolean checkImages(File file, ThemeToken token, DiscordThemerLogger logger) {
+        String fileName = file.getName();
+        String icon = token.getMetaData("icon");
+        if (icon != null && (source == null || !source.hasImage(icon))) {
+            File image = resolveImage(file, icon);
+            if (!image.exists() || image.isDirectory()) {
+                logger.perror("Invalid Server Image File: " + image.getPath(), fileName);
+                logger.perror(" ^ If you were trying to specify another directory, start the metadata value with a slash!", fileName);
+                return false;
+            }
+        }
+
+        String avatarName = token.getMetaData("avatar");
+        if (avatarName != null && (source == null || !source.hasImage(avatarName))) {
+            File avatar = resolveImage(file, avatarName);
+            if (!avatar.exists() || avatar.isDirectory()) {
+                logger.perror("Invalid Avatar Image File: " + avatar.getPath(), fileName);
+                logger.perror(" ^ If you were trying to specify another directory, start the metadata value with a slash!", fileName);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads only the display name of a theme, the rest of the file is neither validated nor kept.
+     * Used to index a catalog without parsing every theme, see {@link DiscordThemerBuilder#setLazyLoading(int)}.
+     * @param content The content of the theme file.
+     * @return Returns the display name or null if the theme does not declare one.
+     * @throws IOException Throws when the content cannot be read.
+     */
+    @CheckForNull
+    static String readDisplayName(ByteBuffer content) throws IOException {
+        String displayName = null;
+        String[] lineTokens = new String[3];
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(ThemeBundle.stream(content), StandardCharsets.UTF_8))) {
+            String curLine;
+            while ((curLine = reader.readLine()) != null) {
+                //Role lines start with their id, only MetaData lines are split
+                if (curLine.isEmpty() || (curLine.charAt(0) != 'M' && curLine.charAt(0) != 'm'))
+                    continue;
+                if (tokenize(curLine, lineTokens) == 3 && META_DATA.equalsIgnoreCase(lineTokens[0]) && lineTokens[1].equals("name"))
+                    displayName = lineTokens[2];
+            }
+        }
+        return displayName;
+    }
+
+    static boolean isSnowflake(String roleId) {
+        if (roleId.isEmpty() || roleId.length() > 19)
+            return false;
+        for (int i = 0; i < roleId.length(); i++) {
+            char c = roleId.charAt(i);
+            if (c < '0' || c > '9')
+                return false;
+        }
+        return roleId.length() < 19 || roleId.compareTo(String.valueOf(Long.MAX_VALUE)) <= 0;
+    }
+
+    File resolveImage(File file, String imageName) {
+        String filePath = file.getPath();
+        int separator = filePath.lastIndexOf('\\');
+        if (separator == -1)
+            return new File(themeDir + imageName + ".png");
+        return new File(filePath.substring(0, separator) + "\\" + imageName + ".png");
+    }
+
+    /**
+     * Splits a line at every ':' character into the provided array.
+     * Behaves like {@code line.split("[:]")}: trailing empty fields are dropped.
+     *
+     * @param line The line to split.
+     * @param tokens The array to write the fields into.
+     * @return Returns the amount of fields on the line, when there are more fields than the array can hold only the count is accurate.
+     */
+    static int tokenize(String line, String[] tokens) {
+        int end = line.length();
+        while (end > 0 && line.charAt(end - 1) == ':')
+            end--;
+        if (end == 0)
+            return 0;
+
+        int count = 0;
+        int start = 0;
+        for (int i = 0; i < end; i++) {
+            if (line.charAt(i) == ':') {
+                if (count < tokens.length)
+                    tokens[count] = line.substring(start, i);
+                count++;
+                start = i + 1;
+            }
+        }
+        if (count < tokens.length)
+            tokens[count] = line.substring(start, end);
+        return count + 1;
+    }
+}
@@ -0,0 +1,68 @@
+package io.github.wheezygold7931.discordthemer;
+
+import javax.annotation.CheckForNull;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+/**
+ * A rule of a {@link ThemeScheduler}: which theme to switch to and when.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ThemeRule {
+
+    private final String themeName;
+    private final CronExpression cron;
+    private final ZoneId zone;
+    private final Instant at;
+
+    private ThemeRule(String themeName, CronExpression cron, ZoneId zone, Instant at) {
+        this.themeName = themeName;
+        this.cron = cron;
+        this.zone = zone;
+        this.at = at;
+    }
+
+    /**
+     * Switches to a theme whenever a cron expression matches, such as "0 18 * * *" for every evening at 6pm.
+     * @param expression The five field cron expression (minute hour day-of-month month day-of-week).
+     * @param zone The time zone the expression is evaluated in.
+     * @param themeName The theme to switch to.
+     * @return The rule.
+     * @throws IllegalArgumentException Throws when the expression is invalid.
+     */
+    public static ThemeRule cron(String expression, ZoneId zone, String themeName) throws IllegalArgumentException {
+        return new ThemeRule(themeName, new CronExpression(expression), zone, null);
+    }
+
+    /**
+     * Switches to a theme once, at a fixed time.
+     * @param at The time of the switch.
+     * @param themeName The theme to switch to.
+     * @return The rule.
+     */
+    public static ThemeRule at(Instant at, String themeName) {
+        return new ThemeRule(themeName, null, null, at);
+    }
+
+    public String getThemeName() {
+        return themeName;
+    }
+
+    /**
+     * @param after The time to search from.
+     * @return Returns the first time the rule fires strictly after the given time, or null if it never fires again.
+     */
+    @CheckForNull
+    public Instant nextAfter(Instant after) {
+        if (at != null)
+            return at.isAfter(after) ? at : null;
+        ZonedDateTime next = cron.next(after.atZone(zone));
+        return next == null ? null : next.toInstant();
+    }
+
+    @Override
+    public String toString() {
+        return (at != null ? "at " + at : "cron '" + cron + "' (" + zone + ")") + " -> " + themeName;
+    }
+}
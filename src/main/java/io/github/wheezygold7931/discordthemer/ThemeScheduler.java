@@ -0,0 +1,212 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.exceptions.ThemeNotFoundException;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Switches the theme of a guild on a timetable of {@link ThemeRule}s, get it with {@link DiscordThemer#getScheduler()}.
+ * Ahead of every switch the theme is prepared (images read and encoded, see {@link DiscordThemer#prepareTheme(String)}) so the switch itself only has to send the actions.
+ * When several rules are due at once, such as after downtime, only the most recent one is applied.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ThemeScheduler {
+
+    //Long timer delays drift from the wall clock (sleep, clock changes), so the scheduler re-checks at least this often
+    private static final long MAX_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(10);
+
+    private final DiscordThemer themer;
+    private final DiscordThemerLogger logger;
+    private final Clock clock;
+    private final List<ThemeRule> rules = new CopyOnWriteArrayList<>();
+
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> prepareTask;
+    private ScheduledFuture<?> fireTask;
+    private Duration prepareAhead = Duration.ofMinutes(1);
+    private Instant lastRun;
+
+    /**
+     * Protected Constructor to be used internally only.
+     */
+    protected ThemeScheduler(DiscordThemer themer, Clock clock, DiscordThemerLogger logger) {
+        this.themer = themer;
+        this.clock = clock;
+        this.logger = logger;
+    }
+
+    /**
+     * Adds a rule, it takes effect right away if the scheduler is running.
+     * @param rule The rule to add.
+     */
+    public synchronized ThemeScheduler addRule(ThemeRule rule) {
+        rules.add(rule);
+        if (executor != null)
+            reschedule();
+        return this;
+    }
+
+    /**
+     * @param rule The rule to remove.
+     * @return Returns true if the rule was scheduled.
+     */
+    public synchronized boolean removeRule(ThemeRule rule) {
+        boolean removed = rules.remove(rule);
+        if (removed && executor != null)
+            reschedule();
+        return removed;
+    }
+
+    /**
+     * @return A copy of the scheduled rules.
+     */
+    public List<ThemeRule> getRules() {
+        return new ArrayList<>(rules);
+    }
+
+    /**
+     * Sets how long before a switch the theme is prepared, defaults to one minute.
+     * @param prepareAhead The time between preparing and applying a theme.
+     * @throws IllegalArgumentException Throws when the duration is negative.
+     */
+    public synchronized ThemeScheduler setPrepareAhead(Duration prepareAhead) throws IllegalArgumentException {
+        if (prepareAhead.isNegative())
+            throw new IllegalArgumentException("Prepare ahead time cannot be negative");
+        this.prepareAhead = prepareAhead;
+        if (executor != null)
+            reschedule();
+        return this;
+    }
+
+    /**
+     * Starts switching themes.
+     * If a rule should have fired within the catch up window before now (for example while the bot was offline), the most recent one is applied right away.
+     * Older missed switches are dropped since a later theme would replace them anyway.
+     * @param catchUp How far back missed switches are still applied, {@link Duration#ZERO} to drop all of them.
+     * @throws IllegalStateException Throws when the scheduler is already running.
+     */
+    public synchronized void start(Duration catchUp) throws IllegalStateException {
+        if (executor != null)
+            throw new IllegalStateException("The scheduler is already running");
+        executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "discord-themer-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        Instant now = clock.instant();
+        lastRun = now.minus(catchUp);
+        Due missed = latestDue(now);
+        lastRun = now;
+        if (missed != null) {
+            logger.info("Applying missed theme switch to " + missed.rule.getThemeName() + " (scheduled for " + missed.time + ")");
+            executor.execute(() -> apply(missed.rule));
+        }
+        reschedule();
+    }
+
+    /**
+     * Stops switching themes, a switch which is already running still finishes.
+     */
+    public synchronized void shutdown() {
+        if (executor == null)
+            return;
+        executor.shutdownNow();
+        executor = null;
+    }
+
+    private void reschedule() {
+        if (prepareTask != null)
+            prepareTask.cancel(false);
+        if (fireTask != null)
+            fireTask.cancel(false);
+
+        Due next = null;
+        for (ThemeRule rule : rules) {
+            Instant time = rule.nextAfter(lastRun);
+            if (time != null && (next == null || time.isBefore(next.time)))
+                next = new Due(rule, time);
+        }
+        if (next == null) {
+            logger.debug("No theme switches are scheduled.");
+            return;
+        }
+
+        long fireDelay = Math.max(Duration.between(clock.instant(), next.time).toMillis(), 0);
+        long prepareDelay = fireDelay - prepareAhead.toMillis();
+        Due upcoming = next;
+        if (prepareDelay <= MAX_DELAY_MILLIS)
+            prepareTask = executor.schedule(() -> prepare(upcoming.rule), Math.max(prepareDelay, 0), TimeUnit.MILLISECONDS);
+        fireTask = executor.schedule(this::fire, Math.min(fireDelay, MAX_DELAY_MILLIS), TimeUnit.MILLISECONDS);
+        logger.debug("Next theme switch: " + upcoming.rule + " at " + upcoming.time);
+    }
+
+    private synchronized void fire() {
+        if (executor == null)
+            return;
+        Instant now = clock.instant();
+        Due due = latestDue(now);
+        if (due != null) {
+            lastRun = now;
+            apply(due.rule);
+        }
+        reschedule();
+    }
+
+    /**
+     * @return The rule with the most recent time between the last run (exclusive) and now (inclusive), null if none are due.
+     */
+    private Due latestDue(Instant now) {
+        Due latest = null;
+        for (ThemeRule rule : rules) {
+            Instant time = rule.nextAfter(lastRun);
+            Instant last = null;
+            while (time != null && !time.isAfter(now)) {
+                last = time;
+                time = rule.nextAfter(time);
+            }
+            if (last != null && (latest == null || last.isAfter(latest.time)))
+                latest = new Due(rule, last);
+        }
+        return latest;
+    }
+
+    private void prepare(ThemeRule rule) {
+        try {
+            themer.prepareTheme(rule.getThemeName());
+        } catch (ThemeNotFoundException e) {
+            logger.warn("Scheduled theme " + rule.getThemeName() + " is not registered!");
+        } catch (RuntimeException e) {
+            logger.error("Error while preparing scheduled theme " + rule.getThemeName() + ": " + e);
+        }
+    }
+
+    private void apply(ThemeRule rule) {
+        try {
+            themer.setServerTheme(rule.getThemeName());
+        } catch (ThemeNotFoundException e) {
+            logger.error("Scheduled theme " + rule.getThemeName() + " is not registered!");
+        } catch (RuntimeException e) {
+            logger.error("Error while applying scheduled theme " + rule.getThemeName() + ": " + e);
+        }
+    }
+
+    private static class Due {
+        private final ThemeRule rule;
+        private final Instant time;
+
+        private Due(ThemeRule rule, Instant time) {
+            this.rule = rule;
+            this.time = time;
+        }
+    }
+}
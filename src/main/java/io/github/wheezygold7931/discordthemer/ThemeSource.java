@@ -0,0 +1,74 @@
+package io.github.wheezygold7931.discordthemer;
+
+import javax.annotation.CheckForNull;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * Where theme files and their images are read from, set one with {@link DiscordThemerBuilder#setThemeSource(ThemeSource)}.
+ * Themes are keyed by their file name ("night.dat"), images by the name the themes use in their icon or avatar MetaData ("/night").
+ * Sources are read from several threads at once.
+ *
+ * <p>Built-in sources: folders ({@link ThemeSource#directory(File)}), classpath and jar resources ({@link ThemeSource#classpath(ClassLoader, String)}),
+ * themes defined in code ({@link InMemoryThemeSource}) and {@link ThemeBundle}s.</p>
+ */
+@SuppressWarnings("WeakerAccess")
+public interface ThemeSource {
+
+    /**
+     * @return The file names of the themes in the source, such as "night.dat".
+     * @throws IOException Throws when the source cannot be listed.
+     */
+    Collection<String> getThemeFileNames() throws IOException;
+
+    /**
+     * @param fileName The file name of the theme, such as "night.dat".
+     * @return Returns the content of the theme file or null if the source does not contain it.
+     * @throws IOException Throws when the theme file cannot be read.
+     */
+    @CheckForNull
+    ByteBuffer readTheme(String fileName) throws IOException;
+
+    /**
+     * @param imageName The name of the image as used in the icon or avatar MetaData.
+     * @return Returns true if the source contains the image.
+     */
+    boolean hasImage(String imageName);
+
+    /**
+     * @param imageName The name of the image as used in the icon or avatar MetaData.
+     * @return Returns the png image or null if the source does not contain it.
+     * @throws IOException Throws when the image cannot be read.
+     */
+    @CheckForNull
+    ByteBuffer readImage(String imageName) throws IOException;
+
+    /**
+     * Encoded images are cached by version, the image is only read again once its version changes.
+     * @param imageName The name of the image as used in the icon or avatar MetaData.
+     * @return Returns a value which changes whenever the image changes, such as its modification time. Sources whose images never change return 0.
+     */
+    default long getImageVersion(String imageName) {
+        return 0;
+    }
+
+    /**
+     * @param folder The folder holding the theme files, images are resolved against it like in a theme folder.
+     * @return A source reading the theme files of a folder.
+     */
+    static ThemeSource directory(File folder) {
+        return new DirectoryThemeSource(folder);
+    }
+
+    /**
+     * Themes are listed from every folder or jar on the classpath which holds the path.
+     * @param classLoader The class loader to load the resources with.
+     * @param path The resource path of the themes, such as "themes".
+     * @return A source reading the theme files packaged with your bot.
+     */
+    static ThemeSource classpath(ClassLoader classLoader, String path) {
+        return new ClasspathThemeSource(classLoader, path);
+    }
+}
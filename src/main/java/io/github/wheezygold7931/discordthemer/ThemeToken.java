@@ -4,19 +4,52 @@ import io.github.wheezygold7931.discordthemer.util.ParserVersion;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nullable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Objects;
+import java.util.Set;
 
+/**
+ * A parsed theme.
+ * Tokens are never modified after {@link ThemeToken#finalizeToken()}, so they may be shared between threads and guilds freely.
+ *
+ * <p>A theme may declare a parent theme (parser version 2, see {@link ThemeToken#getParentName()}), it then only holds the roles and metadata it overrides.
+ * Once linked to its parent with {@link ThemeToken#inherit(ThemeToken)} lookups fall through to the parent chain.
+ * The combined role arrays are built on first use, a theme which overrides no roles shares its parent's arrays instead.</p>
+ */
 @SuppressWarnings("WeakerAccess")
 public class ThemeToken {
 
     private final String themeName;
+    @Nullable
+    private final ThemeToken parent;
 
     /**
      * Key: Role ID
      * Value: Desired Role Name
+     * Only used while the token is being built, {@link ThemeToken#finalizeToken()} moves it into the arrays below.
      */
-    private HashMap<String, String> themeData = new HashMap<>();
-    private HashMap<String, String> themeMetaData = new HashMap<>();
+    @Nullable
+    private HashMap<Long, String> themeData = new HashMap<>();
+    private Map<String, String> themeMetaData = new HashMap<>();
+
+    /**
+     * The roles declared by this theme itself: sorted role ids with the desired (interned) role name at the same index.
+     */
+    private long[] roleIds = new long[0];
+    private String[] roleNames = new String[0];
+    /**
+     * The roles of this theme merged with the ones of its parent chain, built on first use.
+     */
+    @Nullable
+    private volatile Roles resolvedRoles;
+    private final Map<String, String> roleDataView = new RoleDataView();
 
     private String themeDisplayName;
     @Nullable
@@ -27,6 +60,8 @@ public class ThemeToken {
     private String botNickname;
     @Nullable
     private String botIconName;
+    @Nullable
+    private String parentName;
     private ParserVersion parserVersion;
 
     /**
@@ -34,28 +69,178 @@ public class ThemeToken {
      */
     public ThemeToken(String themeName) {
         this.themeName = themeName;
+        this.parent = null;
     }
 
-    protected void addData(String key, String value) {
-        themeData.put(key, value);
+    /**
+     * Copies the declared data of a finalized token, the arrays and metadata map are shared.
+     */
+    private ThemeToken(ThemeToken declared, ThemeToken parent) {
+        this.themeName = declared.themeName;
+        this.parent = parent;
+        this.themeData = null;
+        this.themeMetaData = declared.themeMetaData;
+        this.roleIds = declared.roleIds;
+        this.roleNames = declared.roleNames;
+        resolveMetaData();
     }
 
-    protected void addMetaData(String key, String value) {
+    /**
+     * @throws NumberFormatException Throws when the role id is not a valid snowflake.
+     */
+    protected void addData(String key, String value) throws NumberFormatException {
+        addData(Long.parseLong(key), value);
+    }
+
+    protected void addData(long roleId, String value) {
+        Objects.requireNonNull(themeData, "Token has already been finalized").put(roleId, value);
+    }
+
+    /**
+     * @throws UnsupportedOperationException Throws when the token has already been finalized.
+     */
+    protected void addMetaData(String key, String value) throws UnsupportedOperationException {
         themeMetaData.put(key, value);
     }
 
+    /**
+     * @return The value of the metadata, falling back to the parent chain if this theme does not declare it.
+     */
+    @CheckForNull
+    protected String getMetaData(String key) {
+        String value = themeMetaData.get(key);
+        if (value == null && parent != null)
+            return parent.getMetaData(key);
+        return value;
+    }
+
+    /**
+     * @return The metadata declared by this theme itself, without the metadata of its parent.
+     */
+    protected Map<String, String> getMetaData() {
+        return themeData == null ? themeMetaData : Collections.unmodifiableMap(themeMetaData);
+    }
+
     protected ThemeToken finalizeToken() {
-        themeDisplayName = themeMetaData.get("name");
-        serverTitle = themeMetaData.get("title");
-        serverIconName = themeMetaData.get("icon");
-        botNickname = themeMetaData.get("nickname");
-        botIconName = themeMetaData.get("avatar");
-        parserVersion = ParserVersion.getFromVersionString(themeMetaData.get("parser"));
+        if (themeData != null) {
+            long[] ids = new long[themeData.size()];
+            int i = 0;
+            for (long roleId : themeData.keySet())
+                ids[i++] = roleId;
+            Arrays.sort(ids);
+            String[] names = new String[ids.length];
+            for (i = 0; i < ids.length; i++)
+                names[i] = themeData.get(ids[i]).intern();
+            roleIds = ids;
+            roleNames = names;
+            resolvedRoles = null;
+            themeData = null;
+            themeMetaData = Collections.unmodifiableMap(themeMetaData);
+        }
+        resolveMetaData();
         return this;
     }
 
-    public HashMap<String, String> getThemeRoleData() {
-        return themeData;
+    private void resolveMetaData() {
+        themeDisplayName = getMetaData("name");
+        serverTitle = getMetaData("title");
+        serverIconName = getMetaData("icon");
+        botNickname = getMetaData("nickname");
+        botIconName = getMetaData("avatar");
+        //The parser version and parent are never inherited, they describe the file itself
+        parserVersion = ParserVersion.getFromVersionString(themeMetaData.get("parser"));
+        parentName = parserVersion.supportsInheritance() ? themeMetaData.get("parent") : null;
+    }
+
+    /**
+     * Links a finalized theme to its parent. The token is not modified, a token sharing its declared data is returned.
+     * @param parent The (linked) token of the theme named by {@link ThemeToken#getParentName()}.
+     * @return Returns the linked token, or this token if it is already linked to the given parent.
+     */
+    protected ThemeToken inherit(ThemeToken parent) {
+        if (this.parent == parent)
+            return this;
+        return new ThemeToken(this, parent);
+    }
+
+    /**
+     * @return The roles of this theme and its parent chain, this theme's names win over the parent's for the same role.
+     */
+    private Roles roles() {
+        Roles roles = resolvedRoles;
+        if (roles != null)
+            return roles;
+        if (parent == null) {
+            roles = new Roles(roleIds, roleNames);
+        } else {
+            Roles inherited = parent.roles();
+            if (roleIds.length == 0) {
+                roles = inherited;
+            } else {
+                //Merge the two sorted arrays, role names are interned so nothing but the arrays is copied
+                long[] ids = new long[roleIds.length + inherited.ids.length];
+                String[] names = new String[ids.length];
+                int count = 0;
+                int own = 0;
+                int parentIndex = 0;
+                while (own < roleIds.length || parentIndex < inherited.ids.length) {
+                    if (parentIndex == inherited.ids.length || (own < roleIds.length && roleIds[own] <= inherited.ids[parentIndex])) {
+                        if (parentIndex < inherited.ids.length && roleIds[own] == inherited.ids[parentIndex])
+                            parentIndex++;
+                        ids[count] = roleIds[own];
+                        names[count++] = roleNames[own++];
+                    } else {
+                        ids[count] = inherited.ids[parentIndex];
+                        names[count++] = inherited.names[parentIndex++];
+                    }
+                }
+                roles = new Roles(count == ids.length ? ids : Arrays.copyOf(ids, count), count == names.length ? names : Arrays.copyOf(names, count));
+            }
+        }
+        resolvedRoles = roles;
+        return roles;
+    }
+
+    /**
+     * @return A read-only view of the role data, keyed by role id. The same view is returned on every call.
+     */
+    public Map<String, String> getThemeRoleData() {
+        return roleDataView;
+    }
+
+    /**
+     * @return The amount of roles this theme renames.
+     */
+    public int getRoleCount() {
+        return roles().ids.length;
+    }
+
+    /**
+     * @param index The index of the role, from 0 to {@link ThemeToken#getRoleCount()}. Roles are ordered by id.
+     * @return The id of the role.
+     */
+    public long getRoleId(int index) {
+        return roles().ids[index];
+    }
+
+    /**
+     * @param index The index of the role, from 0 to {@link ThemeToken#getRoleCount()}. Roles are ordered by id.
+     * @return The desired name of the role.
+     */
+    public String getRoleName(int index) {
+        return roles().names[index];
+    }
+
+    /**
+     * @param roleId The id of the role.
+     * @return The desired name of the role or null if the theme does not rename it.
+     */
+    @CheckForNull
+    public String getRoleName(long roleId) {
+        int index = Arrays.binarySearch(roleIds, roleId);
+        if (index >= 0)
+            return roleNames[index];
+        return parent == null ? null : parent.getRoleName(roleId);
     }
 
     protected String getThemeName() {
@@ -89,4 +274,86 @@ public class ThemeToken {
     public ParserVersion getParserVersion() {
         return parserVersion;
     }
+
+    /**
+     * @return The name of the theme this theme inherits from, or null if it does not have a parent.
+     */
+    @CheckForNull
+    public String getParentName() {
+        return parentName;
+    }
+
+    /**
+     * @return The token of the parent theme, or null if the theme has no parent or has not been linked yet.
+     */
+    @CheckForNull
+    public ThemeToken getParent() {
+        return parent;
+    }
+
+    private static class Roles {
+        private final long[] ids;
+        private final String[] names;
+
+        private Roles(long[] ids, String[] names) {
+            this.ids = ids;
+            this.names = names;
+        }
+    }
+
+    private class RoleDataView extends AbstractMap<String, String> {
+
+        @Override
+        public int size() {
+            return getRoleCount();
+        }
+
+        @Override
+        public boolean containsKey(Object key) {
+            return get(key) != null;
+        }
+
+        @Override
+        public String get(Object key) {
+            if (!(key instanceof String))
+                return null;
+            try {
+                return getRoleName(Long.parseLong((String) key));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public Set<Entry<String, String>> entrySet() {
+            Roles roles = roles();
+            return new AbstractSet<Entry<String, String>>() {
+                @Override
+                public Iterator<Entry<String, String>> iterator() {
+                    return new Iterator<Entry<String, String>>() {
+                        private int index = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < roles.ids.length;
+                        }
+
+                        @Override
+                        public Entry<String, String> next() {
+                            if (!hasNext())
+                                throw new NoSuchElementException();
+                            Entry<String, String> entry = new SimpleImmutableEntry<>(Long.toString(roles.ids[index]), roles.names[index]);
+                            index++;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return roles.ids.length;
+                }
+            };
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package io.github.wheezygold7931.discordthemer;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.events.ReconnectedEvent;
+import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
+import net.dv8tion.jda.api.events.role.RoleCreateEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.role.update.RoleUpdatePermissionsEvent;
+import net.dv8tion.jda.api.events.role.update.RoleUpdatePositionEvent;
+import net.dv8tion.jda.api.hooks.ListenerAdapter;
+
+import java.util.function.LongFunction;
+
+/**
+ * Tells themers when the roles or permissions of their guild change, so compiled apply plans are resolved again.
+ * Created and deleted roles are also passed on so the themes referencing them are revalidated.
+ * Changes made while the bot was disconnected arrive without events, so every plan is dropped when a guild becomes ready or the session is reconnected.
+ * Role renames are ignored, plans read role names from JDA's role handles.
+ */
+class ThemerEventListener extends ListenerAdapter {
+
+    private final LongFunction<DiscordThemer> themers;
+
+    /**
+     * @param themers Looks up the themer of a guild ID, may return null for guilds without one.
+     */
+    ThemerEventListener(LongFunction<DiscordThemer> themers) {
+        this.themers = themers;
+    }
+
+    @Override
+    public void onGuildReady(GuildReadyEvent event) {
+        changed(event.getGuild());
+    }
+
+    @Override
+    public void onReconnect(ReconnectedEvent event) {
+        for (Guild guild : event.getJDA().getGuilds())
+            changed(guild);
+    }
+
+    @Override
+    public void onRoleCreate(RoleCreateEvent event) {
+        changed(event.getGuild());
+        roleChanged(event.getGuild(), event.getRole().getIdLong());
+    }
+
+    @Override
+    public void onRoleDelete(RoleDeleteEvent event) {
+        changed(event.getGuild());
+        roleChanged(event.getGuild(), event.getRole().getIdLong());
+    }
+
+    @Override
+    public void onRoleUpdatePermissions(RoleUpdatePermissionsEvent event) {
+        changed(event.getGuild());
+    }
+
+    @Override
+    public void onRoleUpdatePosition(RoleUpdatePositionEvent event) {
+        changed(event.getGuild());
+    }
+
+    @Override
+    public void onGuildMemberRoleAdd(GuildMemberRoleAddEvent event) {
+        if (event.getMember().equals(event.getGuild().getSelfMember()))
+            changed(event.getGuild());
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(GuildMemberRoleRemoveEvent event) {
+        if (event.getMember().equals(event.getGuild().getSelfMember()))
+            changed(event.getGuild());
+    }
+
+    private void changed(Guild guild) {
+        DiscordThemer themer = themers.apply(guild.getIdLong());
+        if (themer != null)
+            themer.onGuildChanged();
+    }
+
+    private void roleChanged(Guild guild, long roleId) {
+        DiscordThemer themer = themers.apply(guild.getIdLong());
+        if (themer != null)
+            themer.onRoleChanged(roleId);
+    }
+}
@@ -0,0 +1,232 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import io.github.wheezygold7931.discordthemer.metrics.ThemerListener;
+import io.github.wheezygold7931.discordthemer.util.ActionMode;
+import net.dv8tion.jda.api.requests.RestAction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Runs the actions of a single theme switch using the configured {@link ActionMode} and records their results.
+ * With {@link ActionMode#ASYNC} at most maxInFlight actions are handed to JDA at once, the rest wait their turn.
+ * With {@link ActionMode#QUEUE} every action is handed to JDA right away, in both modes the batch finishes once Discord has answered all of them.
+ * A batch can be cancelled when a newer theme switch supersedes it, actions which have not been sent to Discord yet are then dropped.
+ */
+class ActionBatch {
+
+    private final ActionMode actionMode;
+    private final int maxInFlight;
+    private final ApplyReport report;
+    private final ThemerListener listener;
+    private final CompletableFuture<ApplyReport> future = new CompletableFuture<>();
+
+    private final ArrayDeque<PendingAction> pending = new ArrayDeque<>();
+    private final List<CompletableFuture<?>> submitted = new ArrayList<>();
+    private int inFlight = 0;
+    private boolean sealed = false;
+    private boolean cancelled = false;
+    //Set before the future completes, the report is not changed afterwards
+    private boolean done = false;
+
+    ActionBatch(ActionMode actionMode, int maxInFlight, ApplyReport report, ThemerListener listener) {
+        this.actionMode = actionMode;
+        this.maxInFlight = maxInFlight;
+        this.report = report;
+        this.listener = listener;
+    }
+
+    /**
+     * @param target The part of the guild the action modifies.
+     * @param subject The id of the role the action modifies, null for guild and bot actions.
+     * @param restAction The action.
+     * @param onSuccess Run once Discord has accepted the action, may be null.
+     */
+    void submit(ActionTarget target, String subject, RestAction<?> restAction, Runnable onSuccess) {
+        submit(target, subject, restAction, onSuccess, null);
+    }
+
+    /**
+     * @param target The part of the guild the action modifies.
+     * @param subject The id of the role the action modifies, null for guild and bot actions.
+     * @param restAction The action.
+     * @param onSuccess Run once Discord has accepted the action, may be null.
+     * @param onCancelled Run if the action is dropped before it was sent to Discord, may be null.
+     */
+    void submit(ActionTarget target, String subject, RestAction<?> restAction, Runnable onSuccess, Runnable onCancelled) {
+        PendingAction action = new PendingAction(target, subject, restAction, onSuccess, onCancelled);
+        synchronized (this) {
+            if (cancelled) {
+                action.cancelled();
+                record(new ActionResult(target, subject, ActionResult.Status.CANCELLED, null, 0));
+                return;
+            }
+        }
+        switch (actionMode) {
+            case BLOCKING: {
+                report.markSent(target);
+                long start = System.nanoTime();
+                try {
+                    restAction.complete();
+                    action.succeeded();
+                    record(new ActionResult(target, subject, ActionResult.Status.SUCCESS, null, System.nanoTime() - start));
+                } catch (RuntimeException e) {
+                    record(new ActionResult(target, subject, ActionResult.Status.FAILED, e, System.nanoTime() - start));
+                }
+                break;
+            }
+            case ASYNC: {
+                synchronized (this) {
+                    pending.add(action);
+                }
+                pump();
+                break;
+            }
+            default: {
+                synchronized (this) {
+                    inFlight++;
+                }
+                action.start();
+                break;
+            }
+        }
+    }
+
+    /**
+     * Marks that no more actions will be submitted.
+     * @return A future which completes once every submitted action has finished.
+     */
+    CompletableFuture<ApplyReport> seal() {
+        synchronized (this) {
+            sealed = true;
+        }
+        checkDone();
+        return future;
+    }
+
+    /**
+     * Drops every action which has not been sent to Discord yet, actions Discord is already processing still finish.
+     * The report is only marked as superseded if something was actually dropped and its future has not completed yet.
+     */
+    void cancel() {
+        List<PendingAction> dropped;
+        List<CompletableFuture<?>> running;
+        synchronized (this) {
+            if (cancelled)
+                return;
+            cancelled = true;
+            dropped = new ArrayList<>(pending);
+            pending.clear();
+            running = new ArrayList<>(submitted);
+            //Cancelled futures finish right away, this keeps the batch open until the report is marked
+            inFlight++;
+        }
+        boolean superseded = !dropped.isEmpty();
+        for (PendingAction action : dropped) {
+            action.cancelled();
+            record(new ActionResult(action.target, action.subject, ActionResult.Status.CANCELLED, null, 0));
+        }
+        for (CompletableFuture<?> result : running)
+            superseded |= result.cancel(false);
+        synchronized (this) {
+            inFlight--;
+            if (superseded && !done)
+                report.markSuperseded();
+        }
+        checkDone();
+    }
+
+    private void pump() {
+        while (true) {
+            PendingAction action;
+            synchronized (this) {
+                if (inFlight >= maxInFlight || pending.isEmpty())
+                    return;
+                action = pending.poll();
+                inFlight++;
+            }
+            action.start();
+        }
+    }
+
+    private void finish(PendingAction action, Throwable error) {
+        long latency = System.nanoTime() - action.startNanos;
+        if (error instanceof CompletionException && error.getCause() != null)
+            error = error.getCause();
+        ActionResult.Status status;
+        if (error == null) {
+            action.succeeded();
+            status = ActionResult.Status.SUCCESS;
+        } else if (error instanceof CancellationException) {
+            action.cancelled();
+            status = ActionResult.Status.CANCELLED;
+        } else {
+            status = ActionResult.Status.FAILED;
+        }
+        record(new ActionResult(action.target, action.subject, status, status == ActionResult.Status.FAILED ? error : null, latency));
+        synchronized (this) {
+            inFlight--;
+        }
+        pump();
+        checkDone();
+    }
+
+    private void record(ActionResult result) {
+        report.addResult(result);
+        listener.onActionFinished(result);
+    }
+
+    private void checkDone() {
+        synchronized (this) {
+            if (!sealed || inFlight > 0 || !pending.isEmpty())
+                return;
+            done = true;
+        }
+        future.complete(report);
+    }
+
+    private class PendingAction {
+        private final ActionTarget target;
+        private final String subject;
+        private final RestAction<?> restAction;
+        private final Runnable onSuccess;
+        private final Runnable onCancelled;
+        private long startNanos;
+
+        private PendingAction(ActionTarget target, String subject, RestAction<?> restAction, Runnable onSuccess, Runnable onCancelled) {
+            this.target = target;
+            this.subject = subject;
+            this.restAction = restAction;
+            this.onSuccess = onSuccess;
+            this.onCancelled = onCancelled;
+        }
+
+        private void start() {
+            report.markSent(target);
+            startNanos = System.nanoTime();
+            try {
+                CompletableFuture<?> result = restAction.submit();
+                synchronized (ActionBatch.this) {
+                    submitted.add(result);
+                }
+                result.whenComplete((success, failure) -> finish(this, failure));
+            } catch (RuntimeException e) {
+                finish(this, e);
+            }
+        }
+
+        private void succeeded() {
+            if (onSuccess != null)
+                onSuccess.run();
+        }
+
+        private void cancelled() {
+            if (onCancelled != null)
+                onCancelled.run();
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nullable;
+
+/**
+ * The outcome of a single action sent during a theme switch.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ActionResult {
+
+    public enum Status {
+        /**
+         * The action was completed by Discord.
+         */
+        SUCCESS,
+        /**
+         * The action failed, see {@link ActionResult#getError()}.
+         */
+        FAILED,
+        /**
+         * The action was dropped before reaching Discord because a newer theme switch superseded it.
+         */
+        CANCELLED
+    }
+
+    private final ActionTarget target;
+    @Nullable
+    private final String subject;
+    private final Status status;
+    @Nullable
+    private final Throwable error;
+    private final long latencyNanos;
+
+    public ActionResult(ActionTarget target, @Nullable String subject, Status status, @Nullable Throwable error, long latencyNanos) {
+        this.target = target;
+        this.subject = subject;
+        this.status = status;
+        this.error = error;
+        this.latencyNanos = latencyNanos;
+    }
+
+    public ActionTarget getTarget() {
+        return target;
+    }
+
+    /**
+     * @return The id of the role the action modified, null for guild and bot actions.
+     */
+    @CheckForNull
+    public String getSubject() {
+        return subject;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    @CheckForNull
+    public Throwable getError() {
+        return error;
+    }
+
+    /**
+     * @return Time between the action being started and its completion, 0 for dropped actions.
+     */
+    public long getLatencyNanos() {
+        return latencyNanos;
+    }
+
+    @Override
+    public String toString() {
+        return target + (subject == null ? "" : "(" + subject + ")") + ": " + status + (error == null ? "" : " (" + error + ")");
+    }
+}
@@ -0,0 +1,14 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+/**
+ * The different parts of a guild a theme can modify.
+ */
+public enum ActionTarget {
+
+    SERVER_ICON,
+    BOT_AVATAR,
+    SERVER_TITLE,
+    BOT_NICKNAME,
+    ROLE_NAME
+
+}
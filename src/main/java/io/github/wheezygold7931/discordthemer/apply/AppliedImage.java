@@ -0,0 +1,65 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Learns which image content belongs to the server icon or bot avatar ids Discord reports.
+ * Discord only gives us back an opaque image id, so once an upload has completed we read the id from the guild or self user it changed.
+ * JDA's cache may not have caught up with the upload by then, the upload is then kept pending and belongs to the first different id seen later.
+ */
+class AppliedImage {
+
+    private static final int MAX_KNOWN_IDS = 32;
+
+    private final Map<String, String> knownIds = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_KNOWN_IDS;
+        }
+    };
+    //The upload whose new id JDA's cache did not report yet
+    private String pendingHash;
+    private String pendingPreviousId;
+
+    /**
+     * @param imageHash The content hash of the image the theme wants to upload.
+     * @param currentId The image id Discord currently reports.
+     * @return Returns true if the current image is known to have the same content.
+     */
+    synchronized boolean matches(String imageHash, String currentId) {
+        resolve(currentId);
+        return currentId != null && imageHash.equals(knownIds.get(currentId));
+    }
+
+    /**
+     * Records the id of an image once Discord has accepted its upload.
+     * @param imageHash The content hash of the uploaded image.
+     * @param previousId The image id before the upload.
+     * @param currentId The image id of the guild or self user after the upload completed, kept pending while it equals the previous one.
+     */
+    synchronized void uploaded(String imageHash, String previousId, String currentId) {
+        if (pendingHash != null) {
+            //An earlier upload was never seen, the ids of both can no longer be told apart
+            pendingHash = null;
+            pendingPreviousId = null;
+        } else if (currentId != null && !currentId.equals(previousId)) {
+            knownIds.put(currentId, imageHash);
+        } else {
+            pendingHash = imageHash;
+            pendingPreviousId = previousId;
+        }
+    }
+
+    /**
+     * Assigns the pending upload to the current id once it differs from the id before the upload.
+     * @param currentId The image id Discord currently reports.
+     */
+    private void resolve(String currentId) {
+        if (pendingHash == null || currentId == null || currentId.equals(pendingPreviousId))
+            return;
+        knownIds.put(currentId, pendingHash);
+        pendingHash = null;
+        pendingPreviousId = null;
+    }
+}
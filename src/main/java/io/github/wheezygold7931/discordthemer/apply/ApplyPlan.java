@@ -0,0 +1,75 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import io.github.wheezygold7931.discordthemer.ThemeToken;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+
+/**
+ * A theme token resolved against a guild: the role handles and the results of the permission checks.
+ * Plans are compiled once per token and reused until the applier is told that roles or permissions changed, see {@link ThemeApplier#invalidatePlans()}.
+ * Role names are still read from the handles when applying, JDA keeps them up to date.
+ */
+class ApplyPlan {
+
+    final long generation;
+    final Member self;
+    final boolean manageServer;
+    final boolean changeNickname;
+
+    final int roleCount;
+    final Role[] roles;
+    final String[] roleKeys;
+    final String[] roleNames;
+    final int deniedRoles;
+
+    private ApplyPlan(long generation, Member self, boolean manageServer, boolean changeNickname, int roleCount, Role[] roles, String[] roleKeys, String[] roleNames, int deniedRoles) {
+        this.generation = generation;
+        this.self = self;
+        this.manageServer = manageServer;
+        this.changeNickname = changeNickname;
+        this.roleCount = roleCount;
+        this.roles = roles;
+        this.roleKeys = roleKeys;
+        this.roleNames = roleNames;
+        this.deniedRoles = deniedRoles;
+    }
+
+    /**
+     * Resolves every role of the token and runs the permission checks.
+     * Roles which are not in the guild are left out, roles the bot cannot interact with are only counted.
+     * @param generation The generation of the applier's plans at the time of compiling.
+     */
+    static ApplyPlan compile(Guild guild, ThemeToken token, long generation, DiscordThemerLogger logger) {
+        Member self = guild.getSelfMember();
+        boolean manageRoles = self.hasPermission(Permission.MANAGE_ROLES);
+        int size = token.getRoleCount();
+        Role[] roles = new Role[size];
+        String[] roleKeys = new String[size];
+        String[] roleNames = new String[size];
+        int count = 0;
+        int denied = 0;
+        for (int i = 0; i < size; i++) {
+            long roleId = token.getRoleId(i);
+            Role role = guild.getRoleById(roleId);
+            if (role == null) {
+                if (logger.isDebugEnabled())
+                    logger.debug("Role ID " + roleId + " is not in " + guild.getName() + ", Skipping!");
+                continue;
+            }
+            if (!manageRoles || !self.canInteract(role)) {
+                logger.warn("Cannot Interact with Role ID: " + roleId + ", Skipping!");
+                denied++;
+                continue;
+            }
+            roles[count] = role;
+            roleKeys[count] = role.getId();
+            roleNames[count] = token.getRoleName(i);
+            count++;
+        }
+        return new ApplyPlan(generation, self, self.hasPermission(Permission.MANAGE_SERVER), self.hasPermission(Permission.NICKNAME_CHANGE),
+                count, roles, roleKeys, roleNames, denied);
+    }
+}
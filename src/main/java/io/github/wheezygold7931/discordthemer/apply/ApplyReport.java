@@ -0,0 +1,159 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Summary of a single theme switch.
+ * Sent actions were handed to JDA, skipped actions already matched the guild and denied actions lacked permissions.
+ * Deferred actions were over their {@link CooldownTracker} budget, they are sent by a later retry once the budget allows it.
+ * The outcome of every sent action is recorded as an {@link ActionResult}.
+ * A superseded report belongs to a theme switch which was replaced by a newer one before all of its actions were sent.
+ * A report does not change anymore once the future it was returned by has completed.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ApplyReport {
+
+    private final String themeName;
+    private final EnumMap<ActionTarget, Integer> sent = new EnumMap<>(ActionTarget.class);
+    private final EnumMap<ActionTarget, Integer> skipped = new EnumMap<>(ActionTarget.class);
+    private final EnumMap<ActionTarget, Integer> denied = new EnumMap<>(ActionTarget.class);
+    private final EnumMap<ActionTarget, Integer> deferred = new EnumMap<>(ActionTarget.class);
+    private final List<ActionResult> results = Collections.synchronizedList(new ArrayList<>());
+    private volatile boolean superseded = false;
+
+    public ApplyReport(String themeName) {
+        this.themeName = themeName;
+    }
+
+    protected void markSent(ActionTarget target) {
+        //Actions are handed to JDA from its callback threads once earlier ones finish
+        synchronized (sent) {
+            sent.merge(target, 1, Integer::sum);
+        }
+    }
+
+    protected void markSkipped(ActionTarget target) {
+        skipped.merge(target, 1, Integer::sum);
+    }
+
+    protected void markDenied(ActionTarget target) {
+        markDenied(target, 1);
+    }
+
+    protected void markDenied(ActionTarget target, int count) {
+        if (count > 0)
+            denied.merge(target, count, Integer::sum);
+    }
+
+    protected void markDeferred(ActionTarget target) {
+        deferred.merge(target, 1, Integer::sum);
+    }
+
+    protected void addResult(ActionResult result) {
+        results.add(result);
+    }
+
+    protected void markSuperseded() {
+        superseded = true;
+    }
+
+    public String getThemeName() {
+        return themeName;
+    }
+
+    public int getSentCount() {
+        synchronized (sent) {
+            return sum(sent);
+        }
+    }
+
+    public int getSkippedCount() {
+        return sum(skipped);
+    }
+
+    public int getDeniedCount() {
+        return sum(denied);
+    }
+
+    public int getDeferredCount() {
+        return sum(deferred);
+    }
+
+    /**
+     * @return Returns true if a newer theme switch replaced this one before all of its actions were sent.
+     */
+    public boolean isSuperseded() {
+        return superseded;
+    }
+
+    /**
+     * @return The amount of actions which were dropped because a newer theme switch superseded this one.
+     */
+    public int getCancelledCount() {
+        int cancelled = 0;
+        synchronized (results) {
+            for (ActionResult result : results) {
+                if (result.getStatus() == ActionResult.Status.CANCELLED)
+                    cancelled++;
+            }
+        }
+        return cancelled;
+    }
+
+    public int getSentCount(ActionTarget target) {
+        synchronized (sent) {
+            return sent.getOrDefault(target, 0);
+        }
+    }
+
+    public int getSkippedCount(ActionTarget target) {
+        return skipped.getOrDefault(target, 0);
+    }
+
+    public int getDeniedCount(ActionTarget target) {
+        return denied.getOrDefault(target, 0);
+    }
+
+    public int getDeferredCount(ActionTarget target) {
+        return deferred.getOrDefault(target, 0);
+    }
+
+    /**
+     * @return A copy of the results of every action which has finished so far.
+     */
+    public List<ActionResult> getResults() {
+        synchronized (results) {
+            return new ArrayList<>(results);
+        }
+    }
+
+    /**
+     * @return A copy of the results of every action which has failed so far.
+     */
+    public List<ActionResult> getFailures() {
+        List<ActionResult> failures = new ArrayList<>();
+        synchronized (results) {
+            for (ActionResult result : results) {
+                if (result.getStatus() == ActionResult.Status.FAILED)
+                    failures.add(result);
+            }
+        }
+        return failures;
+    }
+
+    private static int sum(Map<ActionTarget, Integer> counts) {
+        int total = 0;
+        for (int count : counts.values())
+            total += count;
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "ApplyReport{theme=" + themeName + ", sent=" + getSentCount() + ", skipped=" + getSkippedCount() + ", denied=" + getDeniedCount() + ", deferred=" + getDeferredCount() + (superseded ? ", superseded" : "") + "}";
+    }
+}
@@ -0,0 +1,301 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+/**
+ * Token buckets for the parts of a guild Discord only lets a bot change a few times in a while, so frequent theme switches do not run into long rate limits.
+ * A bucket holds up to capacity tokens and gets one back every refill interval, an update is only sent while its bucket has a token left.
+ * Updates over budget are deferred by the {@link ThemeApplier} and sent once a token is back, role names are never limited.
+ * The server icon and title are limited per guild, the bot avatar belongs to the bot so its bucket is shared by the trackers of every guild.
+ */
+@SuppressWarnings("WeakerAccess")
+public class CooldownTracker {
+
+    private final EnumMap<ActionTarget, Bucket> buckets = new EnumMap<>(ActionTarget.class);
+    private final CooldownTracker parent;
+    //Monotonic nanoseconds, like System.nanoTime()
+    private final LongSupplier clock;
+    private ScheduledExecutorService executor;
+    private boolean shutdown = false;
+
+    /**
+     * Creates a tracker with the suggested budgets: 2 avatar changes per hour and 2 server icon and title changes per 10 minutes, nicknames are not limited.
+     * {@link io.github.wheezygold7931.discordthemer.DiscordThemerBuilder} starts from {@link CooldownTracker#unlimited()} instead.
+     */
+    public CooldownTracker() {
+        this(System::nanoTime);
+    }
+
+    /**
+     * Creates a tracker with the suggested budgets which reads the time from the given clock.
+     * @param clock The clock returning monotonic nanoseconds, like {@link System#nanoTime()}.
+     */
+    CooldownTracker(LongSupplier clock) {
+        this.parent = null;
+        this.clock = clock;
+        setCooldown(ActionTarget.BOT_AVATAR, 2, 30, TimeUnit.MINUTES);
+        setCooldown(ActionTarget.SERVER_ICON, 2, 5, TimeUnit.MINUTES);
+        setCooldown(ActionTarget.SERVER_TITLE, 2, 5, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates a tracker with the same budgets as another one, but with full buckets and its own retry thread.
+     * @param budgets The tracker to copy the budgets of.
+     */
+    public CooldownTracker(CooldownTracker budgets) {
+        this(null, budgets);
+    }
+
+    private CooldownTracker(CooldownTracker parent, CooldownTracker budgets) {
+        this.parent = parent;
+        this.clock = budgets.clock;
+        synchronized (budgets) {
+            for (Map.Entry<ActionTarget, Bucket> bucket : budgets.buckets.entrySet()) {
+                //The avatar belongs to the bot, not to the guild
+                boolean shared = parent != null && bucket.getKey() == ActionTarget.BOT_AVATAR;
+                buckets.put(bucket.getKey(), shared ? bucket.getValue() : new Bucket(bucket.getValue().capacity, bucket.getValue().refillNanos, clock.getAsLong()));
+            }
+        }
+    }
+
+    /**
+     * @return Returns a tracker which does not limit anything.
+     */
+    public static CooldownTracker unlimited() {
+        CooldownTracker tracker = new CooldownTracker();
+        synchronized (tracker) {
+            tracker.buckets.clear();
+        }
+        return tracker;
+    }
+
+    /**
+     * Sets the budget of a part of the guild, replacing its current bucket with a full one.
+     * @param target The part of the guild to limit, role names cannot be limited.
+     * @param capacity How many updates may be sent in a row, 0 removes the limit.
+     * @param refill How long it takes to get back one update.
+     * @param unit The unit of refill.
+     * @throws IllegalArgumentException Throws when the target is {@link ActionTarget#ROLE_NAME} or the budget is negative or never refills.
+     */
+    public synchronized CooldownTracker setCooldown(ActionTarget target, int capacity, long refill, TimeUnit unit) throws IllegalArgumentException {
+        if (target == ActionTarget.ROLE_NAME)
+            throw new IllegalArgumentException("Role names cannot be limited");
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity cannot be negative");
+        if (capacity > 0 && refill < 1)
+            throw new IllegalArgumentException("Refill interval must be positive");
+        if (capacity == 0)
+            buckets.remove(target);
+        else
+            buckets.put(target, new Bucket(capacity, unit.toNanos(refill), clock.getAsLong()));
+        return this;
+    }
+
+    /**
+     * Creates the tracker of a single guild, with the same budgets as this one and sharing the avatar bucket and the retry thread with it.
+     * @return The tracker of the guild.
+     */
+    public CooldownTracker forGuild() {
+        return new CooldownTracker(root(), root());
+    }
+
+    /**
+     * Takes a token for an update.
+     * @param target The part of the guild to update.
+     * @return Returns true if the update may be sent, false if it is over budget.
+     */
+    boolean tryAcquire(ActionTarget target) {
+        Bucket bucket = bucket(target);
+        return bucket == null || bucket.tryAcquire(clock.getAsLong());
+    }
+
+    /**
+     * Gives a token back, for an update which was taken but never sent to Discord.
+     */
+    void release(ActionTarget target) {
+        Bucket bucket = bucket(target);
+        if (bucket != null)
+            bucket.release(clock.getAsLong());
+    }
+
+    /**
+     * @return The nanoseconds until the next token of the target is back, 0 if it has one now.
+     */
+    long nanosUntilAvailable(ActionTarget target) {
+        Bucket bucket = bucket(target);
+        return bucket == null ? 0 : bucket.nanosUntilAvailable(clock.getAsLong());
+    }
+
+    /**
+     * Runs a task on the retry thread, which is shared by every guild of the tracker and only started when first needed.
+     * @return The scheduled task, null if the tracker has been shut down.
+     */
+    ScheduledFuture<?> schedule(Runnable task, long delayNanos) {
+        CooldownTracker root = root();
+        synchronized (root) {
+            if (root.shutdown)
+                return null;
+            if (root.executor == null) {
+                root.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "discord-themer-cooldowns");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+            return root.executor.schedule(task, delayNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops the retry thread this tracker shares with every guild tracker created from it, deferred updates which have not been sent yet are dropped.
+     */
+    public void shutdown() {
+        CooldownTracker root = root();
+        synchronized (root) {
+            root.shutdown = true;
+            if (root.executor != null) {
+                root.executor.shutdownNow();
+                root.executor = null;
+            }
+        }
+    }
+
+    /**
+     * Gets the current budgets, parts of the guild which are not limited are not included.
+     * @return Returns a snapshot of the budget of every limited part of the guild.
+     */
+    public Map<ActionTarget, Budget> getBudgets() {
+        long now = clock.getAsLong();
+        EnumMap<ActionTarget, Budget> budgets = new EnumMap<>(ActionTarget.class);
+        synchronized (this) {
+            for (Map.Entry<ActionTarget, Bucket> bucket : buckets.entrySet())
+                budgets.put(bucket.getKey(), bucket.getValue().budget(bucket.getKey(), now));
+        }
+        return Collections.unmodifiableMap(budgets);
+    }
+
+    private synchronized Bucket bucket(ActionTarget target) {
+        return buckets.get(target);
+    }
+
+    private CooldownTracker root() {
+        return parent == null ? this : parent;
+    }
+
+    private static class Bucket {
+        private final int capacity;
+        private final long refillNanos;
+        private int tokens;
+        private long refilledAt;
+
+        private Bucket(int capacity, long refillNanos, long now) {
+            this.capacity = capacity;
+            this.refillNanos = refillNanos;
+            this.tokens = capacity;
+            this.refilledAt = now;
+        }
+
+        private synchronized boolean tryAcquire(long now) {
+            refill(now);
+            if (tokens == 0)
+                return false;
+            tokens--;
+            return true;
+        }
+
+        private synchronized void release(long now) {
+            refill(now);
+            if (tokens < capacity)
+                tokens++;
+        }
+
+        private synchronized long nanosUntilAvailable(long now) {
+            refill(now);
+            return tokens > 0 ? 0 : refilledAt + refillNanos - now;
+        }
+
+        private synchronized Budget budget(ActionTarget target, long now) {
+            refill(now);
+            long untilNext = tokens == capacity ? 0 : refilledAt + refillNanos - now;
+            return new Budget(target, tokens, capacity, TimeUnit.NANOSECONDS.toMillis(refillNanos), TimeUnit.NANOSECONDS.toMillis(untilNext));
+        }
+
+        private void refill(long now) {
+            if (tokens == capacity) {
+                refilledAt = now;
+                return;
+            }
+            long refills = (now - refilledAt) / refillNanos;
+            if (refills <= 0)
+                return;
+            if (refills >= capacity - tokens) {
+                tokens = capacity;
+                refilledAt = now;
+            } else {
+                tokens += (int) refills;
+                //Keep the partial interval so the next token is not delayed
+                refilledAt += refills * refillNanos;
+            }
+        }
+    }
+
+    /**
+     * The budget of a part of the guild at the time it was taken.
+     */
+    public static class Budget {
+        private final ActionTarget target;
+        private final int available;
+        private final int capacity;
+        private final long refillMillis;
+        private final long millisUntilRefill;
+
+        private Budget(ActionTarget target, int available, int capacity, long refillMillis, long millisUntilRefill) {
+            this.target = target;
+            this.available = available;
+            this.capacity = capacity;
+            this.refillMillis = refillMillis;
+            this.millisUntilRefill = millisUntilRefill;
+        }
+
+        public ActionTarget getTarget() {
+            return target;
+        }
+
+        /**
+         * @return How many updates may be sent right now.
+         */
+        public int getAvailable() {
+            return available;
+        }
+
+        public int getCapacity() {
+            return capacity;
+        }
+
+        /**
+         * @return How long it takes to get back one update.
+         */
+        public long getRefillMillis() {
+            return refillMillis;
+        }
+
+        /**
+         * @return How long until the next update is back, 0 if the budget is full.
+         */
+        public long getMillisUntilRefill() {
+            return millisUntilRefill;
+        }
+
+        @Override
+        public String toString() {
+            return "Budget{" + target + ": " + available + "/" + capacity + ", next in " + millisUntilRefill + "ms}";
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import net.dv8tion.jda.api.entities.Icon;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size-bounded LRU cache of encoded {@link Icon}s so switching back and forth between themes does not read and encode the same images again.
+ * Entries are checked against the image's version from its {@link io.github.wheezygold7931.discordthemer.ThemeSource} (the modification time for files) and re-hashed when it changes,
+ * so an edited image is picked up on the next use. Images are hashed in place and only copied when they have to be encoded.
+ * One cache can be shared by the themers of many guilds.
+ */
+public class IconCache {
+
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedIcon> icons = new LinkedHashMap<>(16, 0.75f, true);
+    private long cachedBytes = 0;
+
+    /**
+     * @param maxBytes The maximum total size of the cached images, 0 disables caching.
+     */
+    public IconCache(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Gets the encoded icon for an image, loading it only if it is not cached or its version has changed.
+     * @param key A key unique to the image.
+     * @param version Changes whenever the image content may have changed, see {@link io.github.wheezygold7931.discordthemer.ThemeSource#getImageVersion(String)}.
+     * @param loader Loads the png image, the buffer is not modified.
+     * @return The cached icon.
+     * @throws IOException Throws when the image cannot be read.
+     */
+    CachedIcon get(String key, long version, ImageLoader loader) throws IOException {
+        CachedIcon cached;
+        synchronized (this) {
+            cached = icons.get(key);
+        }
+        if (cached != null && cached.version == version)
+            return cached;
+
+        ByteBuffer data = loader.load();
+        String hash = hash(data);
+        CachedIcon icon = cached != null && cached.hash.equals(hash)
+                ? new CachedIcon(cached.icon, hash, data.remaining(), version)
+                : new CachedIcon(Icon.from(toArray(data)), hash, data.remaining(), version);
+
+        synchronized (this) {
+            CachedIcon old = icons.remove(key);
+            if (old != null)
+                cachedBytes -= old.length;
+            if (icon.length <= maxBytes) {
+                icons.put(key, icon);
+                cachedBytes += icon.length;
+                evict();
+            }
+        }
+        return icon;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, CachedIcon>> iterator = icons.entrySet().iterator();
+        while (cachedBytes > maxBytes && iterator.hasNext()) {
+            cachedBytes -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    private static byte[] toArray(ByteBuffer data) {
+        if (data.hasArray() && data.arrayOffset() == 0 && data.position() == 0 && data.remaining() == data.array().length)
+            return data.array();
+        byte[] bytes = new byte[data.remaining()];
+        data.duplicate().get(bytes);
+        return bytes;
+    }
+
+    private static String hash(ByteBuffer data) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(data.duplicate());
+            StringBuilder builder = new StringBuilder(64);
+            for (byte b : digest.digest())
+                builder.append(String.format("%02x", b));
+            return builder.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    interface ImageLoader {
+        ByteBuffer load() throws IOException;
+    }
+
+    static class CachedIcon {
+        private final Icon icon;
+        private final String hash;
+        private final long length;
+        private final long version;
+
+        private CachedIcon(Icon icon, String hash, long length, long version) {
+            this.icon = icon;
+            this.hash = hash;
+            this.length = length;
+            this.version = version;
+        }
+
+        Icon getIcon() {
+            return icon;
+        }
+
+        /**
+         * @return The SHA-256 hash of the image content.
+         */
+        String getHash() {
+            return hash;
+        }
+    }
+}
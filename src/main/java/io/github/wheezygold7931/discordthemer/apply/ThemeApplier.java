@@ -0,0 +1,360 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import io.github.wheezygold7931.discordthemer.ThemeSource;
+import io.github.wheezygold7931.discordthemer.ThemeToken;
+import io.github.wheezygold7931.discordthemer.metrics.ThemerListener;
+import io.github.wheezygold7931.discordthemer.util.ActionMode;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.Permission;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Diffs a {@link ThemeToken} against the live guild and only sends the actions for fields that actually differ.
+ * Theme switches are applied one at a time and the newest one wins: a switch requested while another is running cancels the actions of the running one which have not been sent yet,
+ * and replaces any switch still waiting for its turn. The waiting switch is only diffed once it starts, so it only sends what differs from the state the previous switch left behind.
+ * With {@link ActionMode#BLOCKING} every switch is applied on the calling thread instead.
+ * Role lookups and permission checks are compiled into an {@link ApplyPlan} per theme and reused until {@link ThemeApplier#invalidatePlans()} is called.
+ * Server icon, title, nickname and avatar updates are limited by a {@link CooldownTracker}, updates over budget are deferred while the role names still go out right away.
+ * The latest theme is applied again once the budget allows it, any newer switch replaces that retry.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ThemeApplier {
+
+    private static final long APPLIED_VALUE_TTL_NANOS = TimeUnit.SECONDS.toNanos(15);
+
+    private final JDA jda;
+    private final Guild guild;
+    private final ThemeSource source;
+    private final String iconKeyPrefix;
+    private final ActionMode actionMode;
+    private final int maxActionsInFlight;
+    private final DiscordThemerLogger logger;
+    private final ThemerListener listener;
+
+    private final IconCache iconCache;
+    private final CooldownTracker cooldowns;
+    private final AppliedImage serverIcon = new AppliedImage();
+    private final AppliedImage botAvatar = new AppliedImage();
+    private final Map<String, AppliedValue> appliedValues = new ConcurrentHashMap<>();
+    private final Map<ThemeToken, ApplyPlan> plans = Collections.synchronizedMap(new WeakHashMap<>());
+    private final AtomicLong planGeneration = new AtomicLong();
+
+    private ApplyRequest running;
+    private ApplyRequest waiting;
+    private ActionBatch lastBatch;
+    private volatile ThemeToken latestToken;
+    private ScheduledFuture<?> retry;
+    private boolean shutdown = false;
+
+    public ThemeApplier(JDA jda, Guild guild, ThemeSource source, ActionMode actionMode, int maxActionsInFlight, IconCache iconCache, CooldownTracker cooldowns, ThemerListener listener, DiscordThemerLogger logger) {
+        this.jda = jda;
+        this.guild = guild;
+        this.source = source;
+        this.iconKeyPrefix = source + "!";
+        this.actionMode = actionMode;
+        this.maxActionsInFlight = maxActionsInFlight;
+        this.logger = logger;
+        this.listener = listener;
+        this.iconCache = iconCache;
+        this.cooldowns = cooldowns;
+    }
+
+    /**
+     * Applies a theme to the guild, superseding any theme switch which has not finished yet.
+     * @param themeName The theme name of the token.
+     * @param token The (finalized) theme token to apply.
+     * @return Returns a future of the report of which actions were sent and which were skipped. The future completes once every sent action has finished,
+     * or as soon as the switch is replaced by a newer one before it started; See {@link ApplyReport#isSuperseded()}.
+     */
+    public CompletableFuture<ApplyReport> apply(String themeName, ThemeToken token) {
+        latestToken = token;
+        cancelRetry();
+        if (actionMode == ActionMode.BLOCKING)
+            return plan(new ApplyReport(themeName), token).seal();
+
+        ApplyRequest request = new ApplyRequest(new ApplyReport(themeName), token);
+        ApplyRequest replaced = null;
+        ActionBatch previous;
+        boolean start;
+        synchronized (this) {
+            previous = lastBatch;
+            start = running == null;
+            if (start) {
+                running = request;
+            } else {
+                replaced = waiting;
+                waiting = request;
+            }
+        }
+        if (previous != null)
+            previous.cancel();
+        if (replaced != null) {
+            String replacedName = replaced.report.getThemeName();
+            logger.debug(() -> "Theme " + replacedName + " was superseded by " + themeName + " before it started.");
+            replaced.report.markSuperseded();
+            replaced.future.complete(replaced.report);
+        }
+        if (start)
+            start(request);
+        return request.future;
+    }
+
+    private void start(ApplyRequest request) {
+        ActionBatch batch;
+        try {
+            batch = plan(request.report, request.token);
+        } catch (RuntimeException e) {
+            request.future.completeExceptionally(e);
+            next();
+            return;
+        }
+        boolean supersededAlready;
+        synchronized (this) {
+            lastBatch = batch;
+            supersededAlready = waiting != null;
+        }
+        if (supersededAlready)
+            batch.cancel();
+        batch.seal().whenComplete((report, error) -> {
+            request.future.complete(request.report);
+            next();
+        });
+    }
+
+    private void next() {
+        ApplyRequest request;
+        synchronized (this) {
+            request = waiting;
+            waiting = null;
+            running = request;
+        }
+        if (request != null)
+            start(request);
+    }
+
+    /**
+     * Compiles the plan of a theme and reads and encodes its images into the icon cache so applying it later does not have to.
+     * Images are not kept when the icon cache is disabled.
+     * @param token The (finalized) theme token to prepare.
+     */
+    public void prepare(ThemeToken token) {
+        planFor(token);
+        try {
+            if (token.getServerIconName() != null)
+                icon(token.getServerIconName());
+            if (token.getBotIconName() != null)
+                icon(token.getBotIconName());
+        } catch (IOException e) {
+            logger.warn("Could not prepare the server icon or avatar of " + token.getThemeDisplayName() + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Gets an image of a theme from the theme source, it is only read when it is not in the icon cache.
+     */
+    private IconCache.CachedIcon icon(String imageName) throws IOException {
+        return iconCache.get(iconKeyPrefix + imageName, source.getImageVersion(imageName), () -> {
+            ByteBuffer image = source.readImage(imageName);
+            if (image == null)
+                throw new FileNotFoundException("Image " + imageName + " is not in " + source);
+            return image;
+        });
+    }
+
+    /**
+     * Diffs the token against the guild and submits the actions for every field that differs.
+     * @return The batch of the submitted actions, not sealed yet.
+     */
+    private ActionBatch plan(ApplyReport report, ThemeToken token) {
+        ActionBatch batch = new ActionBatch(actionMode, maxActionsInFlight, report, listener);
+        ApplyPlan plan = planFor(token);
+        Member self = plan.self;
+        boolean manageServer = plan.manageServer;
+
+        try {
+            if (manageServer && token.getServerIconName() != null) {
+                IconCache.CachedIcon icon = icon(token.getServerIconName());
+                if (serverIcon.matches(icon.getHash(), guild.getIconId())) {
+                    report.markSkipped(ActionTarget.SERVER_ICON);
+                } else if (!cooldowns.tryAcquire(ActionTarget.SERVER_ICON)) {
+                    report.markDeferred(ActionTarget.SERVER_ICON);
+                } else {
+                    String previousId = guild.getIconId();
+                    batch.submit(ActionTarget.SERVER_ICON, null, guild.getManager().setIcon(icon.getIcon()),
+                            () -> serverIcon.uploaded(icon.getHash(), previousId, guild.getIconId()), () -> cooldowns.release(ActionTarget.SERVER_ICON));
+                }
+            }
+            if (token.getBotIconName() != null) {
+                IconCache.CachedIcon icon = icon(token.getBotIconName());
+                if (botAvatar.matches(icon.getHash(), jda.getSelfUser().getAvatarId())) {
+                    report.markSkipped(ActionTarget.BOT_AVATAR);
+                } else if (!cooldowns.tryAcquire(ActionTarget.BOT_AVATAR)) {
+                    report.markDeferred(ActionTarget.BOT_AVATAR);
+                } else {
+                    String previousId = jda.getSelfUser().getAvatarId();
+                    batch.submit(ActionTarget.BOT_AVATAR, null, jda.getSelfUser().getManager().setAvatar(icon.getIcon()),
+                            () -> botAvatar.uploaded(icon.getHash(), previousId, jda.getSelfUser().getAvatarId()), () -> cooldowns.release(ActionTarget.BOT_AVATAR));
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Your server icon or avatar file(s) are invalid or have been deleted/modified since the last parsing.", e);
+        } finally {
+            if (manageServer && token.getServerTitle() != null) {
+                String title = token.getServerTitle();
+                if (title.equals(current("title", guild.getName()))) {
+                    report.markSkipped(ActionTarget.SERVER_TITLE);
+                } else if (!cooldowns.tryAcquire(ActionTarget.SERVER_TITLE)) {
+                    report.markDeferred(ActionTarget.SERVER_TITLE);
+                } else {
+                    batch.submit(ActionTarget.SERVER_TITLE, null, guild.getManager().setName(title), () -> applied("title", title), () -> cooldowns.release(ActionTarget.SERVER_TITLE));
+                }
+            }
+            if (plan.changeNickname && token.getBotNickname() != null) {
+                String nickname = token.getBotNickname();
+                if (nickname.equals(current("nickname", self.getNickname()))) {
+                    report.markSkipped(ActionTarget.BOT_NICKNAME);
+                } else if (!cooldowns.tryAcquire(ActionTarget.BOT_NICKNAME)) {
+                    report.markDeferred(ActionTarget.BOT_NICKNAME);
+                } else {
+                    batch.submit(ActionTarget.BOT_NICKNAME, null, guild.modifyNickname(self, nickname), () -> applied("nickname", nickname), () -> cooldowns.release(ActionTarget.BOT_NICKNAME));
+                }
+            }
+            report.markDenied(ActionTarget.ROLE_NAME, plan.deniedRoles);
+            Role[] roles = plan.roles;
+            String[] roleKeys = plan.roleKeys;
+            String[] roleNames = plan.roleNames;
+            for (int i = 0; i < plan.roleCount; i++) {
+                String key = roleKeys[i];
+                String roleName = roleNames[i];
+                if (roleName.equals(current(key, roles[i].getName()))) {
+                    report.markSkipped(ActionTarget.ROLE_NAME);
+                    continue;
+                }
+                batch.submit(ActionTarget.ROLE_NAME, key, roles[i].getManager().setName(roleName), () -> applied(key, roleName));
+            }
+            if (report.getDeferredCount() > 0)
+                scheduleRetry(report, token);
+        }
+        return batch;
+    }
+
+    /**
+     * Applies the token again once the first deferred update is back within its budget, unless a newer switch happened by then.
+     */
+    private void scheduleRetry(ApplyReport report, ThemeToken token) {
+        long delay = Long.MAX_VALUE;
+        for (ActionTarget target : ActionTarget.values()) {
+            if (report.getDeferredCount(target) > 0)
+                delay = Math.min(delay, cooldowns.nanosUntilAvailable(target));
+        }
+        String themeName = report.getThemeName();
+        long delayNanos = delay;
+        logger.info(report.getDeferredCount() + " update(s) of " + themeName + " are over their cooldown budget, retrying in " + TimeUnit.NANOSECONDS.toMillis(delayNanos) + "ms.");
+        synchronized (this) {
+            if (shutdown || latestToken != token)
+                return;
+            if (retry != null)
+                retry.cancel(false);
+            retry = cooldowns.schedule(() -> {
+                if (latestToken != token)
+                    return;
+                logger.debug(() -> "Retrying the deferred updates of " + themeName);
+                apply(themeName, token).whenComplete((retried, error) -> {
+                    if (error != null)
+                        logger.error("Error while retrying the deferred updates of " + themeName + ": " + error);
+                });
+            }, delayNanos);
+        }
+    }
+
+    private synchronized void cancelRetry() {
+        if (retry != null) {
+            retry.cancel(false);
+            retry = null;
+        }
+    }
+
+    /**
+     * Drops the retry of deferred updates, if there is one.
+     */
+    public void shutdown() {
+        synchronized (this) {
+            shutdown = true;
+        }
+        cancelRetry();
+    }
+
+    /**
+     * Gets the compiled plan of a token, compiling it if there is none or the plans have been invalidated since.
+     */
+    private ApplyPlan planFor(ThemeToken token) {
+        long generation = planGeneration.get();
+        ApplyPlan plan = plans.get(token);
+        if (plan == null || plan.generation != generation) {
+            plan = ApplyPlan.compile(guild, token, generation, logger);
+            plans.put(token, plan);
+        }
+        return plan;
+    }
+
+    /**
+     * Drops the compiled plans so they are resolved again on their next use.
+     * Call this when roles are created, deleted or moved, when the bot's roles or permissions change, or when JDA's cache of the guild was rebuilt.
+     */
+    public void invalidatePlans() {
+        planGeneration.incrementAndGet();
+    }
+
+    /**
+     * Discord's gateway events can lag behind the REST responses, so values applied by a recent switch take precedence over JDA's cache for a short while.
+     * @param key "title", "nickname" or the id of a role.
+     * @param cached The value in JDA's cache.
+     * @return The value the field most likely has right now.
+     */
+    private String current(String key, String cached) {
+        AppliedValue applied = appliedValues.get(key);
+        if (applied == null || System.nanoTime() - applied.appliedAt > APPLIED_VALUE_TTL_NANOS)
+            return cached;
+        return applied.value;
+    }
+
+    private void applied(String key, String value) {
+        appliedValues.put(key, new AppliedValue(value, System.nanoTime()));
+    }
+
+    private static class AppliedValue {
+        private final String value;
+        private final long appliedAt;
+
+        private AppliedValue(String value, long appliedAt) {
+            this.value = value;
+            this.appliedAt = appliedAt;
+        }
+    }
+
+    private static class ApplyRequest {
+        private final ApplyReport report;
+        private final ThemeToken token;
+        private final CompletableFuture<ApplyReport> future = new CompletableFuture<>();
+
+        private ApplyRequest(ApplyReport report, ThemeToken token) {
+            this.report = report;
+            this.token = token;
+        }
+    }
+}
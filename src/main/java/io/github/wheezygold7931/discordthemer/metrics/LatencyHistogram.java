@@ -0,0 +1,65 @@
+package io.github.wheezygold7931.discordthemer.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with power of two buckets, recording a value is a couple of atomic increments.
+ * Percentiles are reported as the upper bound of their bucket, so they are accurate to within a factor of two.
+ */
+@SuppressWarnings("WeakerAccess")
+public class LatencyHistogram {
+
+    private final AtomicLongArray buckets = new AtomicLongArray(64);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    /**
+     * @param nanos The latency to record, negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        if (nanos < 0)
+            nanos = 0;
+        buckets.incrementAndGet(64 - Long.numberOfLeadingZeros(nanos) - (nanos == 0 ? 0 : 1));
+        count.increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getMeanNanos() {
+        long samples = count.sum();
+        return samples == 0 ? 0 : totalNanos.sum() / samples;
+    }
+
+    /**
+     * @param percentile The percentile between 0 and 100, such as 99 for the p99.
+     * @return The latency below which the given percentage of the recorded values fall, 0 if nothing was recorded.
+     */
+    public long getPercentileNanos(double percentile) {
+        long samples = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            samples += snapshot[i];
+        }
+        if (samples == 0)
+            return 0;
+        long rank = (long) Math.ceil(samples * Math.min(Math.max(percentile, 0), 100) / 100);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= Math.max(rank, 1))
+                return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + getCount() + ", mean=" + TimeUnit.NANOSECONDS.toMicros(getMeanNanos()) + "us, p50<=" + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(50)) + "us, p99<=" + TimeUnit.NANOSECONDS.toMicros(getPercentileNanos(99)) + "us";
+    }
+}
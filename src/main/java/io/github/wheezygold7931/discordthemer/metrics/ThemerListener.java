@@ -0,0 +1,130 @@
+package io.github.wheezygold7931.discordthemer.metrics;
+
+import io.github.wheezygold7931.discordthemer.ThemeToken;
+import io.github.wheezygold7931.discordthemer.apply.ActionResult;
+import io.github.wheezygold7931.discordthemer.apply.ApplyReport;
+
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Receives timings of everything the themer does, register it with {@link io.github.wheezygold7931.discordthemer.DiscordThemerBuilder#addListener(ThemerListener)}.
+ * Events are delivered on whichever thread did the work (loader threads, JDA callback threads, ...) so implementations must be thread-safe and should return quickly.
+ * Every method does nothing by default. See {@link ThemerMetrics} for a ready to use implementation.
+ */
+@SuppressWarnings("WeakerAccess")
+public interface ThemerListener {
+
+    /**
+     * A listener which ignores every event.
+     */
+    ThemerListener NONE = new ThemerListener() {
+    };
+
+    /**
+     * Called once for every theme file that was validated and parsed.
+     * @param fileName The name of the theme file.
+     * @param token The parsed theme, null if the file failed validation.
+     * @param nanos Time spent validating and parsing the file.
+     * @param fromCache True if the theme was taken from the compiled theme cache instead of being parsed.
+     */
+    default void onThemeParsed(String fileName, @Nullable ThemeToken token, long nanos, boolean fromCache) {
+    }
+
+    /**
+     * Called once the whole theme folder has been loaded.
+     * @param loaded The amount of themes which were registered.
+     * @param failed The amount of theme files which failed validation.
+     * @param nanos Wall-clock time spent loading the folder.
+     */
+    default void onThemesLoaded(int loaded, int failed, long nanos) {
+    }
+
+    /**
+     * Called once for every action sent to Discord which has finished or was dropped.
+     * The latency includes the time JDA held the action back because of rate-limits.
+     * @param result The outcome of the action.
+     */
+    default void onActionFinished(ActionResult result) {
+    }
+
+    /**
+     * Called once a theme switch has finished.
+     * @param report The report of the switch.
+     * @param nanos Time from the switch being requested until every sent action has finished.
+     */
+    default void onThemeApplied(ApplyReport report, long nanos) {
+    }
+
+    /**
+     * Called once a server capture has finished.
+     * @param name The name of the exported theme.
+     * @param nanos Time spent exporting the theme, including the image downloads.
+     * @param error The error which stopped the capture, null if it succeeded.
+     */
+    default void onServerCaptured(String name, long nanos, @Nullable Throwable error) {
+    }
+
+    /**
+     * Combines listeners into one, an exception thrown by one listener does not stop the others from receiving the event.
+     * @param listeners The listeners to combine.
+     * @return The combined listener.
+     */
+    static ThemerListener of(List<ThemerListener> listeners) {
+        if (listeners.isEmpty())
+            return NONE;
+        ThemerListener[] all = new ArrayList<>(listeners).toArray(new ThemerListener[0]);
+        return new ThemerListener() {
+            @Override
+            public void onThemeParsed(String fileName, @Nullable ThemeToken token, long nanos, boolean fromCache) {
+                for (ThemerListener listener : all) {
+                    try {
+                        listener.onThemeParsed(fileName, token, nanos, fromCache);
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+            }
+
+            @Override
+            public void onThemesLoaded(int loaded, int failed, long nanos) {
+                for (ThemerListener listener : all) {
+                    try {
+                        listener.onThemesLoaded(loaded, failed, nanos);
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+            }
+
+            @Override
+            public void onActionFinished(ActionResult result) {
+                for (ThemerListener listener : all) {
+                    try {
+                        listener.onActionFinished(result);
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+            }
+
+            @Override
+            public void onThemeApplied(ApplyReport report, long nanos) {
+                for (ThemerListener listener : all) {
+                    try {
+                        listener.onThemeApplied(report, nanos);
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+            }
+
+            @Override
+            public void onServerCaptured(String name, long nanos, @Nullable Throwable error) {
+                for (ThemerListener listener : all) {
+                    try {
+                        listener.onServerCaptured(name, nanos, error);
+                    } catch (RuntimeException ignored) {
+                    }
+                }
+            }
+        };
+    }
+}
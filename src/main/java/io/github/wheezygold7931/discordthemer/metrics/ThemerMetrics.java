@@ -0,0 +1,171 @@
+package io.github.wheezygold7931.discordthemer.metrics;
+
+import io.github.wheezygold7931.discordthemer.ThemeToken;
+import io.github.wheezygold7931.discordthemer.apply.ActionResult;
+import io.github.wheezygold7931.discordthemer.apply.ApplyReport;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A built-in {@link ThemerListener} which keeps counters and latency histograms of everything the themer does.
+ * It never allocates while recording, so it can stay registered in production.
+ */
+@SuppressWarnings("WeakerAccess")
+public class ThemerMetrics implements ThemerListener {
+
+    private final LongAdder themesParsed = new LongAdder();
+    private final LongAdder themesFailed = new LongAdder();
+    private final LongAdder themesFromCache = new LongAdder();
+    private final LatencyHistogram parseLatency = new LatencyHistogram();
+    private final LatencyHistogram loadLatency = new LatencyHistogram();
+
+    private final LongAdder actionsSent = new LongAdder();
+    private final LongAdder actionsSkipped = new LongAdder();
+    private final LongAdder actionsDenied = new LongAdder();
+    private final LongAdder actionsFailed = new LongAdder();
+    private final LongAdder actionsCancelled = new LongAdder();
+    private final LongAdder themesSuperseded = new LongAdder();
+    private final LatencyHistogram actionLatency = new LatencyHistogram();
+    private final LatencyHistogram applyLatency = new LatencyHistogram();
+
+    private final LongAdder capturesFailed = new LongAdder();
+    private final LatencyHistogram captureLatency = new LatencyHistogram();
+
+    @Override
+    public void onThemeParsed(String fileName, @Nullable ThemeToken token, long nanos, boolean fromCache) {
+        if (token == null) {
+            themesFailed.increment();
+        } else {
+            themesParsed.increment();
+            if (fromCache)
+                themesFromCache.increment();
+        }
+        parseLatency.record(nanos);
+    }
+
+    @Override
+    public void onThemesLoaded(int loaded, int failed, long nanos) {
+        loadLatency.record(nanos);
+    }
+
+    @Override
+    public void onActionFinished(ActionResult result) {
+        switch (result.getStatus()) {
+            case SUCCESS:
+                actionLatency.record(result.getLatencyNanos());
+                break;
+            case FAILED:
+                actionsFailed.increment();
+                actionLatency.record(result.getLatencyNanos());
+                break;
+            case CANCELLED:
+                actionsCancelled.increment();
+                break;
+            default:
+                break;
+        }
+    }
+
+    @Override
+    public void onThemeApplied(ApplyReport report, long nanos) {
+        actionsSent.add(report.getSentCount());
+        actionsSkipped.add(report.getSkippedCount());
+        actionsDenied.add(report.getDeniedCount());
+        if (report.isSuperseded())
+            themesSuperseded.increment();
+        applyLatency.record(nanos);
+    }
+
+    @Override
+    public void onServerCaptured(String name, long nanos, @Nullable Throwable error) {
+        if (error != null)
+            capturesFailed.increment();
+        captureLatency.record(nanos);
+    }
+
+    /**
+     * @return The amount of theme files which were registered, including the ones taken from the compiled theme cache.
+     */
+    public long getThemesParsed() {
+        return themesParsed.sum();
+    }
+
+    public long getThemesFailed() {
+        return themesFailed.sum();
+    }
+
+    public long getThemesFromCache() {
+        return themesFromCache.sum();
+    }
+
+    public long getActionsSent() {
+        return actionsSent.sum();
+    }
+
+    public long getActionsSkipped() {
+        return actionsSkipped.sum();
+    }
+
+    public long getActionsDenied() {
+        return actionsDenied.sum();
+    }
+
+    public long getActionsFailed() {
+        return actionsFailed.sum();
+    }
+
+    public long getActionsCancelled() {
+        return actionsCancelled.sum();
+    }
+
+    public long getThemesSuperseded() {
+        return themesSuperseded.sum();
+    }
+
+    public long getCapturesFailed() {
+        return capturesFailed.sum();
+    }
+
+    /**
+     * @return Time spent validating and parsing a single theme file.
+     */
+    public LatencyHistogram getParseLatency() {
+        return parseLatency;
+    }
+
+    /**
+     * @return Time spent loading the whole theme folder.
+     */
+    public LatencyHistogram getLoadLatency() {
+        return loadLatency;
+    }
+
+    /**
+     * @return Time a single action took to complete, including rate-limit waits.
+     */
+    public LatencyHistogram getActionLatency() {
+        return actionLatency;
+    }
+
+    /**
+     * @return Time from a theme switch being requested until every sent action has finished.
+     */
+    public LatencyHistogram getApplyLatency() {
+        return applyLatency;
+    }
+
+    public LatencyHistogram getCaptureLatency() {
+        return captureLatency;
+    }
+
+    @Override
+    public String toString() {
+        return "ThemerMetrics{themes=" + getThemesParsed() + " (" + getThemesFromCache() + " cached, " + getThemesFailed() + " failed)"
+                + ", parse=[" + parseLatency + "]"
+                + ", actions=" + getActionsSent() + " sent, " + getActionsSkipped() + " skipped, " + getActionsDenied() + " denied, " + getActionsFailed() + " failed, " + getActionsCancelled() + " cancelled"
+                + ", action=[" + actionLatency + "]"
+                + ", apply=[" + applyLatency + "]"
+                + ", captures=" + captureLatency.getCount() + " (" + getCapturesFailed() + " failed)}";
+    }
+}
@@ -3,6 +3,7 @@ package io.github.wheezygold7931.discordthemer.util;
 public enum ActionMode {
 
     QUEUE,
-    BLOCKING
+    BLOCKING,
+    ASYNC
 
 }
@@ -1,64 +1,264 @@
 package io.github.wheezygold7931.discordthemer.util;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * The themer's logger, output goes to the console or to SLF4J.
+ * Messages of disabled levels are dropped before they are built: use the {@link Supplier} variants, or check {@link DiscordThemerLogger#isDebugEnabled()} around
+ * messages that need string concatenation, so nothing is allocated when the level is off.
+ */
 public class DiscordThemerLogger {
 
+    private static final int DEBUG = 0;
+    private static final int INFO = 1;
+    private static final int WARN = 2;
+    private static final int ERROR = 3;
+    private static final String[] LEVEL_TAGS = {"[DEBUG] ", "[INFO] ", "[WARN] ", "[ERROR] "};
+
     private final boolean isDebug;
     private final boolean isDisplayingInfo;
     private final boolean isDisplayingWarnings;
     private final boolean isDisplayingErrors;
 
     private final String prefix;
+    private final Logger slf4j;
+
+    private final DiscordThemerLogger parent;
+    private final List<BufferedLine> buffer;
+    //Every warning and error of a buffered logger with its level tag, including those of levels which are not displayed
+    private final List<String> problemLines;
+    private int problems = 0;
 
     public DiscordThemerLogger(String prefix, boolean debugMode, boolean info, boolean warnings, boolean errors) {
+        this(prefix, debugMode, info, warnings, errors, false);
+    }
+
+    /**
+     * @param slf4j If true output is handed to the SLF4J logger "io.github.wheezygold7931.discordthemer" instead of the console,
+     * the other settings still filter what is logged before SLF4J's own levels apply.
+     */
+    public DiscordThemerLogger(String prefix, boolean debugMode, boolean info, boolean warnings, boolean errors, boolean slf4j) {
         this.prefix = prefix;
         this.isDebug = debugMode;
         this.isDisplayingInfo = info;
         this.isDisplayingWarnings = warnings;
         this.isDisplayingErrors = errors;
+        this.slf4j = slf4j ? LoggerFactory.getLogger("io.github.wheezygold7931.discordthemer") : null;
+        this.parent = null;
+        this.buffer = null;
+        this.problemLines = null;
+    }
+
+    private DiscordThemerLogger(DiscordThemerLogger parent) {
+        this.prefix = parent.prefix;
+        this.isDebug = parent.isDebug;
+        this.isDisplayingInfo = parent.isDisplayingInfo;
+        this.isDisplayingWarnings = parent.isDisplayingWarnings;
+        this.isDisplayingErrors = parent.isDisplayingErrors;
+        this.slf4j = parent.slf4j;
+        this.parent = parent;
+        this.buffer = new ArrayList<>();
+        this.problemLines = new ArrayList<>();
+    }
+
+    /**
+     * Creates a logger which holds on to its output until {@link DiscordThemerLogger#flush()} is called.
+     * Used to keep the output of work done on other threads together.
+     * @return The buffered logger.
+     */
+    public DiscordThemerLogger buffered() {
+        return new DiscordThemerLogger(this);
+    }
+
+    /**
+     * Writes everything a buffered logger has collected to its parent logger.
+     */
+    public void flush() {
+        if (buffer == null)
+            return;
+        for (BufferedLine line : buffer)
+            parent.log(line.level, line.text, line.error);
+        buffer.clear();
+    }
+
+    /**
+     * @return The amount of warnings and errors reported to this logger, including those of levels which are not displayed.
+     */
+    public int getProblemCount() {
+        return problems;
+    }
+
+    /**
+     * @return A copy of the warnings and errors reported to this buffered logger, each starting with its level tag. Empty for loggers which are not buffered.
+     */
+    public List<String> getProblems() {
+        return problemLines == null ? new ArrayList<>() : new ArrayList<>(problemLines);
+    }
+
+    /**
+     * Reports a warning or error returned by {@link DiscordThemerLogger#getProblems()} again, at its original level.
+     * @param problem The problem, starting with its level tag.
+     */
+    public void replay(String problem) {
+        if (problem.startsWith(LEVEL_TAGS[ERROR]))
+            problem(ERROR, problem.substring(LEVEL_TAGS[ERROR].length()), null);
+        else
+            problem(WARN, problem.startsWith(LEVEL_TAGS[WARN]) ? problem.substring(LEVEL_TAGS[WARN].length()) : problem, null);
+    }
+
+    public boolean isDebugEnabled() {
+        return isDebug && (slf4j == null || slf4j.isDebugEnabled());
+    }
+
+    public boolean isInfoEnabled() {
+        return isDisplayingInfo && (slf4j == null || slf4j.isInfoEnabled());
+    }
+
+    public boolean isWarnEnabled() {
+        return isDisplayingWarnings && (slf4j == null || slf4j.isWarnEnabled());
+    }
+
+    public boolean isErrorEnabled() {
+        return isDisplayingErrors && (slf4j == null || slf4j.isErrorEnabled());
     }
 
     public void info(String infoString) {
-        if (isDisplayingInfo)
-            log("[INFO] " + infoString);
+        if (isInfoEnabled())
+            log(INFO, infoString);
     }
 
     public void warn(String warnString) {
-        if (isDisplayingWarnings)
-            log("[WARN] " + warnString);
+        problem(WARN, warnString, null);
     }
 
     public void error(String errorString) {
-        if (isDisplayingErrors)
-            log("[ERROR] " + errorString);
+        problem(ERROR, errorString, null);
+    }
+
+    /**
+     * Logs an error together with the stack trace of what caused it.
+     * @param error The cause, its stack trace is handed to SLF4J or printed below the message.
+     */
+    public void error(String errorString, Throwable error) {
+        problem(ERROR, errorString, error);
     }
 
     public void debug(String debugString) {
-        if (isDebug)
-            log("[DEBUG] " + debugString);
+        if (isDebugEnabled())
+            log(DEBUG, debugString);
+    }
+
+    public void info(Supplier<String> infoString) {
+        if (isInfoEnabled())
+            log(INFO, infoString.get());
+    }
+
+    public void warn(Supplier<String> warnString) {
+        if (problemLines != null || isWarnEnabled())
+            problem(WARN, warnString.get(), null);
+        else
+            problems++;
+    }
+
+    public void debug(Supplier<String> debugString) {
+        if (isDebugEnabled())
+            log(DEBUG, debugString.get());
     }
 
     public void pinfo(String infoString, String themeName) {
-        if (isDisplayingInfo)
-            log("[INFO] [PARSER] [" + themeName + "] " + infoString);
+        if (isInfoEnabled())
+            log(INFO, "[PARSER] [" + themeName + "] " + infoString);
     }
 
     public void pwarn(String warnString, String themeName) {
-        if (isDisplayingWarnings)
-            log("[WARN] [PARSER] [" + themeName + "] " + warnString);
+        problem(WARN, "[PARSER] [" + themeName + "] " + warnString, null);
     }
 
     public void perror(String errorString, String themeName) {
-        if (isDisplayingErrors)
-            log("[ERROR] [PARSER] [" + themeName + "] " + errorString);
+        problem(ERROR, "[PARSER] [" + themeName + "] " + errorString, null);
     }
 
     public void pdebug(String debugString, String themeName) {
-        if (isDebug)
-            log("[DEBUG] [PARSER] [" + themeName + "] " + debugString);
+        if (isDebugEnabled())
+            log(DEBUG, "[PARSER] [" + themeName + "] " + debugString);
     }
 
-    private void log(String log) {
-        System.out.println(prefix + " " + log);
+    public void pwarn(Supplier<String> warnString, String themeName) {
+        if (problemLines != null || isWarnEnabled())
+            problem(WARN, "[PARSER] [" + themeName + "] " + warnString.get(), null);
+        else
+            problems++;
+    }
+
+    public void pdebug(Supplier<String> debugString, String themeName) {
+        if (isDebugEnabled())
+            log(DEBUG, "[PARSER] [" + themeName + "] " + debugString.get());
+    }
+
+    private void problem(int level, String text, Throwable error) {
+        problems++;
+        if (problemLines != null)
+            problemLines.add(LEVEL_TAGS[level] + text);
+        if (level == WARN ? isWarnEnabled() : isErrorEnabled())
+            log(level, text, error);
+    }
+
+    private void log(int level, String text) {
+        log(level, text, null);
+    }
+
+    private void log(int level, String text, Throwable error) {
+        if (buffer != null) {
+            buffer.add(new BufferedLine(level, text, error));
+            return;
+        }
+        if (slf4j == null) {
+            System.out.println(prefix + " " + LEVEL_TAGS[level] + text);
+            if (error != null) {
+                StringWriter trace = new StringWriter();
+                error.printStackTrace(new PrintWriter(trace));
+                for (String line : trace.toString().split("\\R"))
+                    System.out.println(prefix + " " + LEVEL_TAGS[level] + line);
+            }
+            return;
+        }
+        if (error != null) {
+            slf4j.error(text, error);
+            return;
+        }
+        switch (level) {
+            case DEBUG:
+                slf4j.debug(text);
+                break;
+            case INFO:
+                slf4j.info(text);
+                break;
+            case WARN:
+                slf4j.warn(text);
+                break;
+            default:
+                slf4j.error(text);
+                break;
+        }
+    }
+
+    private static class BufferedLine {
+        private final int level;
+        private final String text;
+        private final Throwable error;
+
+        private BufferedLine(int level, String text, Throwable error) {
+            this.level = level;
+            this.text = text;
+            this.error = error;
+        }
     }
 
 }
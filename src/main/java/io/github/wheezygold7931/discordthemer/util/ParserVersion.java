@@ -2,19 +2,32 @@ package io.github.wheezygold7931.discordthemer.util;
 
 public enum ParserVersion {
 
-    V1("1");
+    V1("1", false),
+    /**
+     * Adds the "parent" metadata: the theme inherits every role and metadata value of the parent theme which it does not declare itself.
+     */
+    V2("2", true);
 
     private String version;
-    public static ParserVersion currentVersion = V1;
+    private boolean inheritance;
+    public static ParserVersion currentVersion = V2;
 
-    ParserVersion(String version) {
+    ParserVersion(String version, boolean inheritance) {
         this.version = version;
+        this.inheritance = inheritance;
     }
 
     public String getVersionString() {
         return version;
     }
 
+    /**
+     * @return Returns true if themes of this version may declare a parent theme.
+     */
+    public boolean supportsInheritance() {
+        return inheritance;
+    }
+
     public static boolean isVersion(String versionString) {
         for (ParserVersion parserVersion : ParserVersion.values()) {
             if (parserVersion.getVersionString().equalsIgnoreCase(versionString)) return true;
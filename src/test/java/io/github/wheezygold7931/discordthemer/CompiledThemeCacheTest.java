@@ -0,0 +1,96 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompiledThemeCacheTest {
+
+    private static final DiscordThemerLogger LOGGER = new DiscordThemerLogger("[test]", false, false, false, false);
+
+    //No parser version, so the parser warns about it
+    private static final String DAY = "MetaData:name:Day\nMetaData:title:Sunny\n123456789012345678:Day\n";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File write(String fileName, String content) throws IOException {
+        File file = new File(folder.getRoot(), fileName);
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * Parses the file and stores it in a fresh cache, which is saved to the cache file.
+     * @return The warnings the parser reported.
+     */
+    private List<String> parseAndSave(File file, File cacheFile) throws IOException {
+        byte[] content = Files.readAllBytes(file.toPath());
+        DiscordThemerLogger fileLogger = LOGGER.buffered();
+        List<String> invalidRoleIds = new ArrayList<>();
+        ThemeToken token = new ThemeParser(null, folder.getRoot()).parse(file, content, fileLogger, invalidRoleIds);
+        assertNotNull(token);
+
+        CompiledThemeCache cache = CompiledThemeCache.load(cacheFile, null, LOGGER);
+        cache.store(file, content, token, invalidRoleIds, fileLogger.getProblems());
+        cache.save();
+        return fileLogger.getProblems();
+    }
+
+    @Test
+    public void cachedThemeReplaysWarnings() throws IOException {
+        File file = write("day.dat", DAY);
+        File cacheFile = new File(folder.getRoot(), "themes.cache");
+        List<String> warnings = parseAndSave(file, cacheFile);
+        assertFalse(warnings.isEmpty());
+
+        DiscordThemerLogger fileLogger = LOGGER.buffered();
+        ThemeToken token = CompiledThemeCache.load(cacheFile, null, LOGGER).lookup(file, Files.readAllBytes(file.toPath()), null, null, fileLogger);
+        assertNotNull(token);
+        assertEquals("day", token.getThemeName());
+        assertEquals("Sunny", token.getMetaData("title"));
+        assertEquals(1, token.getRoleCount());
+        assertEquals(123456789012345678L, token.getRoleId(0));
+        assertEquals("Day", token.getRoleName(0));
+        assertEquals(warnings, fileLogger.getProblems());
+        assertEquals(warnings.size(), fileLogger.getProblemCount());
+    }
+
+    @Test
+    public void changedThemeMisses() throws IOException {
+        File file = write("day.dat", DAY);
+        File cacheFile = new File(folder.getRoot(), "themes.cache");
+        parseAndSave(file, cacheFile);
+
+        //Same size and possibly the same modification time, only the hash tells them apart
+        write("day.dat", DAY.replace("Sunny", "Rainy"));
+        DiscordThemerLogger fileLogger = LOGGER.buffered();
+        assertNull(CompiledThemeCache.load(cacheFile, null, LOGGER).lookup(file, Files.readAllBytes(file.toPath()), null, null, fileLogger));
+        assertEquals(0, fileLogger.getProblemCount());
+    }
+
+    @Test
+    public void unusedEntriesAreDroppedOnSave() throws IOException {
+        File file = write("day.dat", DAY);
+        File cacheFile = new File(folder.getRoot(), "themes.cache");
+        parseAndSave(file, cacheFile);
+
+        CompiledThemeCache.load(cacheFile, null, LOGGER).save();
+        assertTrue(cacheFile.isFile());
+        assertNull(CompiledThemeCache.load(cacheFile, null, LOGGER).lookup(file, Files.readAllBytes(file.toPath()), null, null, LOGGER.buffered()));
+    }
+}
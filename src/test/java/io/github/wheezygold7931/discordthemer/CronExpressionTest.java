@@ -0,0 +1,71 @@
+package io.github.wheezygold7931.discordthemer;
+
+import org.junit.Test;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class CronExpressionTest {
+
+    private static final ZoneId BERLIN = ZoneId.of("Europe/Berlin");
+
+    private static ZonedDateTime time(int year, int month, int day, int hour, int minute) {
+        return ZonedDateTime.of(year, month, day, hour, minute, 0, 0, BERLIN);
+    }
+
+    @Test
+    public void nextIsStrictlyAfter() {
+        CronExpression daily = new CronExpression("0 7 * * *");
+        assertEquals(time(2020, 3, 10, 7, 0), daily.next(time(2020, 3, 10, 6, 59)));
+        assertEquals(time(2020, 3, 11, 7, 0), daily.next(time(2020, 3, 10, 7, 0)));
+        assertEquals(time(2020, 3, 11, 7, 0), daily.next(time(2020, 3, 10, 7, 0).plusSeconds(30)));
+    }
+
+    @Test
+    public void stepsRangesAndLists() {
+        assertEquals(time(2020, 3, 10, 6, 15), new CronExpression("*/15 * * * *").next(time(2020, 3, 10, 6, 1)));
+        assertEquals(time(2020, 3, 10, 10, 0), new CronExpression("0 8-18/2 * * *").next(time(2020, 3, 10, 8, 30)));
+        assertEquals(time(2020, 3, 15, 0, 0), new CronExpression("0 0 1,15 * *").next(time(2020, 3, 2, 0, 0)));
+        assertEquals(time(2020, 12, 1, 0, 0), new CronExpression("0 0 1 12 *").next(time(2020, 3, 2, 0, 0)));
+    }
+
+    @Test
+    public void daysOfWeek() {
+        //2020-03-10 is a Tuesday, Sunday is 0 or 7
+        assertEquals(time(2020, 3, 15, 12, 0), new CronExpression("0 12 * * 0").next(time(2020, 3, 10, 0, 0)));
+        assertEquals(time(2020, 3, 15, 12, 0), new CronExpression("0 12 * * 7").next(time(2020, 3, 10, 0, 0)));
+        assertEquals(time(2020, 3, 13, 12, 0), new CronExpression("0 12 * * 5").next(time(2020, 3, 10, 0, 0)));
+    }
+
+    @Test
+    public void eitherDayFieldWhenBothRestricted() {
+        //The 20th or any Friday, whichever comes first
+        CronExpression expression = new CronExpression("0 0 20 * 5");
+        assertEquals(time(2020, 3, 13, 0, 0), expression.next(time(2020, 3, 10, 0, 0)));
+        assertEquals(time(2020, 3, 20, 0, 0), expression.next(time(2020, 3, 14, 0, 0)));
+    }
+
+    @Test
+    public void leapDayAndImpossibleDates() {
+        assertEquals(time(2024, 2, 29, 0, 0), new CronExpression("0 0 29 2 *").next(time(2021, 1, 1, 0, 0)));
+        assertNull(new CronExpression("0 0 30 2 *").next(time(2021, 1, 1, 0, 0)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingFields() {
+        new CronExpression("0 7 * *");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOutOfRangeValues() {
+        new CronExpression("60 7 * * *");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsReversedRanges() {
+        new CronExpression("0 18-8 * * *");
+    }
+}
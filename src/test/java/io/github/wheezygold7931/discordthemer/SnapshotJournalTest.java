@@ -0,0 +1,145 @@
+package io.github.wheezygold7931.discordthemer;
+
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Role;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotJournalTest {
+
+    private static final DiscordThemerLogger LOGGER = new DiscordThemerLogger("[test]", false, false, false, false);
+    private static final long ROLE_ID = 123456789012345678L;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    //The guild's current title and role names, keyed like the snapshot values
+    private final Map<String, String> state = new HashMap<>();
+    private final Guild guild = guild();
+
+    private SnapshotJournal journal(int limit) {
+        //Snapshots without icons never download anything
+        return new SnapshotJournal(folder.getRoot(), "1", limit, null, LOGGER);
+    }
+
+    private static ThemeToken token(String themeName) {
+        ThemeToken token = new ThemeToken(themeName);
+        token.addMetaData("name", themeName);
+        token.addMetaData("title", themeName);
+        token.addData(ROLE_ID, themeName);
+        return token.finalizeToken();
+    }
+
+    /**
+     * Records the guild as it is before switching to a theme, then applies the theme's title.
+     */
+    private void switchTo(SnapshotJournal journal, String themeName) {
+        journal.record(guild, token(themeName), themeName);
+        state.put(ServerSnapshot.TITLE, themeName);
+    }
+
+    private static List<Integer> ids(List<ServerSnapshot> snapshots) {
+        List<Integer> ids = new ArrayList<>();
+        for (ServerSnapshot snapshot : snapshots)
+            ids.add(snapshot.getId());
+        return ids;
+    }
+
+    @Test
+    public void reloadedJournalReplaysDeltas() {
+        state.put(ServerSnapshot.TITLE, "Guild");
+        state.put(Long.toString(ROLE_ID), "Member");
+        SnapshotJournal journal = journal(10);
+        switchTo(journal, "day");
+        switchTo(journal, "night");
+        //The role name never changes, later records only store its key
+        switchTo(journal, "dusk");
+        List<ServerSnapshot> written = journal.getSnapshots();
+
+        List<ServerSnapshot> read = journal(10).getSnapshots();
+        assertEquals(ids(written), ids(read));
+        assertEquals(3, read.size());
+        for (int i = 0; i < read.size(); i++) {
+            assertEquals(written.get(i).getThemeName(), read.get(i).getThemeName());
+            assertEquals(written.get(i).getValues(), read.get(i).getValues());
+        }
+        assertEquals("Guild", read.get(0).getServerTitle());
+        assertEquals("night", read.get(2).getServerTitle());
+        assertEquals("Member", read.get(2).getRoleNames().get(ROLE_ID));
+    }
+
+    @Test
+    public void journalIsCompactedPastTwiceTheLimit() {
+        state.put(ServerSnapshot.TITLE, "Guild");
+        state.put(Long.toString(ROLE_ID), "Member");
+        SnapshotJournal journal = journal(2);
+        for (int i = 0; i < 5; i++)
+            switchTo(journal, "theme" + i);
+        assertEquals(ids(journal.getSnapshots()), ids(journal(2).getSnapshots()));
+        assertEquals(2, journal(2).getSnapshots().size());
+
+        //The compacted journal starts from the full values of its first snapshot
+        SnapshotJournal reloaded = journal(2);
+        ServerSnapshot oldest = reloaded.getSnapshots().get(0);
+        assertEquals(4, oldest.getId());
+        assertEquals("theme2", oldest.getServerTitle());
+        assertEquals("Member", oldest.getRoleNames().get(ROLE_ID));
+
+        switchTo(reloaded, "theme5");
+        reloaded.dropFrom(reloaded.getSnapshots().get(1));
+        List<ServerSnapshot> remaining = journal(2).getSnapshots();
+        assertEquals(1, remaining.size());
+        assertEquals(5, remaining.get(0).getId());
+        assertTrue(remaining.get(0).hasServerTitle());
+    }
+
+    private Guild guild() {
+        JDA jda = stub(JDA.class, (method, args) -> null);
+        return stub(Guild.class, (method, args) -> {
+            switch (method) {
+                case "getJDA":
+                    return jda;
+                case "getName":
+                    return state.get(ServerSnapshot.TITLE);
+                case "getRoleById":
+                    return role(String.valueOf(args[0]));
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private Role role(String roleId) {
+        return stub(Role.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return roleId;
+                case "getName":
+                    return state.get(roleId);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(SnapshotJournalTest.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> answer.answer(method.getName(), args));
+    }
+}
@@ -0,0 +1,82 @@
+package io.github.wheezygold7931.discordthemer;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class ThemeBundleTest {
+
+    private static final String DAY = "MetaData:name:Day\nMetaData:parser:2\n123456789012345678:Day\n";
+    //Images are resolved as the theme folder's path + image name + ".png"
+    private static final String NIGHT = "MetaData:name:Night\nMetaData:parser:2\nMetaData:icon:/moon\n123456789012345678:Night\n";
+    private static final byte[] MOON = {(byte) 0x89, 'P', 'N', 'G', 0, 1, 2, 3};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void packedThemesAndImagesCanBeRead() throws IOException {
+        File themeDir = folder.newFolder("themes");
+        Files.write(new File(themeDir, "day.dat").toPath(), DAY.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(themeDir, "night.dat").toPath(), NIGHT.getBytes(StandardCharsets.UTF_8));
+        Files.write(new File(themeDir, "moon.png").toPath(), MOON);
+        Files.write(new File(themeDir, "notes.txt").toPath(), "not a theme".getBytes(StandardCharsets.UTF_8));
+        File bundleFile = new File(folder.getRoot(), "themes.bundle");
+
+        assertEquals(2, ThemeBundle.pack(themeDir, bundleFile));
+        ThemeBundle bundle = ThemeBundle.open(bundleFile);
+        assertEquals(Arrays.asList("day.dat", "night.dat"), new ArrayList<>(bundle.getThemeFileNames()));
+        assertArrayEquals(DAY.getBytes(StandardCharsets.UTF_8), bytes(bundle.readTheme("day.dat")));
+        assertArrayEquals(NIGHT.getBytes(StandardCharsets.UTF_8), bytes(bundle.readTheme("night.dat")));
+        assertNull(bundle.readTheme("notes.txt"));
+
+        assertTrue(bundle.hasImage("/moon"));
+        assertArrayEquals(MOON, bytes(bundle.readImage("/moon")));
+        assertFalse(bundle.hasImage("/sun"));
+        assertNull(bundle.readImage("/sun"));
+    }
+
+    @Test
+    public void missingImagesAreLeftOut() throws IOException {
+        File themeDir = folder.newFolder("themes");
+        Files.write(new File(themeDir, "night.dat").toPath(), NIGHT.getBytes(StandardCharsets.UTF_8));
+        File bundleFile = new File(folder.getRoot(), "themes.bundle");
+
+        assertEquals(1, ThemeBundle.pack(themeDir, bundleFile));
+        ThemeBundle bundle = ThemeBundle.open(bundleFile);
+        assertTrue(bundle.getThemeFileNames().contains("night.dat"));
+        assertFalse(bundle.hasImage("/moon"));
+    }
+
+    @Test(expected = IOException.class)
+    public void truncatedBundleIsRejected() throws IOException {
+        File themeDir = folder.newFolder("themes");
+        Files.write(new File(themeDir, "day.dat").toPath(), DAY.getBytes(StandardCharsets.UTF_8));
+        File bundleFile = new File(folder.getRoot(), "themes.bundle");
+        ThemeBundle.pack(themeDir, bundleFile);
+
+        byte[] packed = Files.readAllBytes(bundleFile.toPath());
+        Files.write(bundleFile.toPath(), Arrays.copyOf(packed, 20));
+        ThemeBundle.open(bundleFile);
+    }
+}
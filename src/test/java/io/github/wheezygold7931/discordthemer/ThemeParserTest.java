@@ -0,0 +1,61 @@
+package io.github.wheezygold7931.discordthemer;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThemeParserTest {
+
+    //Empty lines are skipped before tokenizing, split("[:]") would return one empty field for them
+    private static final String[] LINES = {
+            "MetaData:name:Theme Display Name",
+            "MetaData:parser:2",
+            "123456789012345678:New Role Name",
+            "no separator",
+            "a::b",
+            "::a",
+            ":a",
+            "a:",
+            "a:b::",
+            ":",
+            ":::",
+            "MetaData:title:Guild: The Sequel",
+            "MetaData:title: ",
+    };
+
+    @Test
+    public void tokenizeMatchesSplit() {
+        for (String line : LINES) {
+            String[] expected = line.split("[:]");
+            String[] tokens = new String[8];
+            int count = ThemeParser.tokenize(line, tokens);
+            assertEquals(line, expected.length, count);
+            assertArrayEquals(line, expected, Arrays.copyOf(tokens, count));
+        }
+    }
+
+    @Test
+    public void tokenizeCountsFieldsBeyondArray() {
+        String[] tokens = new String[3];
+        assertEquals(5, ThemeParser.tokenize("a:b:c:d:e", tokens));
+        assertArrayEquals(new String[]{"a", "b", "c"}, tokens);
+    }
+
+    @Test
+    public void snowflakes() {
+        assertTrue(ThemeParser.isSnowflake("0"));
+        assertTrue(ThemeParser.isSnowflake("123456789012345678"));
+        assertTrue(ThemeParser.isSnowflake(String.valueOf(Long.MAX_VALUE)));
+        assertFalse(ThemeParser.isSnowflake(""));
+        assertFalse(ThemeParser.isSnowflake("r0leid"));
+        assertFalse(ThemeParser.isSnowflake("-1"));
+        assertFalse(ThemeParser.isSnowflake(" 123"));
+        assertFalse(ThemeParser.isSnowflake("9223372036854775808"));
+        assertFalse(ThemeParser.isSnowflake("12345678901234567890"));
+    }
+}
@@ -0,0 +1,77 @@
+package io.github.wheezygold7931.discordthemer;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class ThemeTokenTest {
+
+    private static ThemeToken token(String themeName, String parentName, String title, long[] roleIds, String... roleNames) {
+        ThemeToken token = new ThemeToken(themeName);
+        token.addMetaData("name", themeName);
+        token.addMetaData("parser", "2");
+        if (parentName != null)
+            token.addMetaData("parent", parentName);
+        if (title != null)
+            token.addMetaData("title", title);
+        for (int i = 0; i < roleIds.length; i++)
+            token.addData(roleIds[i], roleNames[i]);
+        return token.finalizeToken();
+    }
+
+    @Test
+    public void childOverridesAndInheritsRoles() {
+        ThemeToken base = token("base", null, "Base Title", new long[]{1, 3, 5}, "Base 1", "Base 3", "Base 5");
+        ThemeToken declared = token("night", "base", null, new long[]{3, 4}, "Night 3", "Night 4");
+        ThemeToken night = declared.inherit(base);
+
+        assertEquals(4, night.getRoleCount());
+        long[] expectedIds = {1, 3, 4, 5};
+        String[] expectedNames = {"Base 1", "Night 3", "Night 4", "Base 5"};
+        for (int i = 0; i < expectedIds.length; i++) {
+            assertEquals(expectedIds[i], night.getRoleId(i));
+            assertEquals(expectedNames[i], night.getRoleName(i));
+        }
+        assertEquals("Night 3", night.getThemeRoleData().get("3"));
+        assertEquals("Base 5", night.getRoleName(5L));
+        assertEquals(4, night.getThemeRoleData().size());
+
+        //The declared token is not modified
+        assertEquals(2, declared.getRoleCount());
+        assertNull(declared.getParent());
+        assertSame(base, night.getParent());
+    }
+
+    @Test
+    public void metaDataFallsThroughExceptParserAndParent() {
+        ThemeToken base = token("base", null, "Base Title", new long[0]);
+        ThemeToken night = token("night", "base", null, new long[0]).inherit(base);
+        assertEquals("Base Title", night.getServerTitle());
+        assertEquals("night", night.getThemeDisplayName());
+        assertEquals("base", night.getParentName());
+        assertNull(base.getParentName());
+
+        ThemeToken dusk = token("dusk", "night", "Dusk Title", new long[0]).inherit(night);
+        assertEquals("Dusk Title", dusk.getServerTitle());
+        assertEquals("night", dusk.getParentName());
+    }
+
+    @Test
+    public void childWithoutRolesSharesParentRoles() {
+        ThemeToken base = token("base", null, null, new long[]{7}, "Base 7");
+        ThemeToken night = token("night", "base", null, new long[0]).inherit(base);
+        assertEquals(1, night.getRoleCount());
+        assertEquals("Base 7", night.getRoleName(0));
+        assertFalse(night.getThemeRoleData().containsKey("8"));
+    }
+
+    @Test
+    public void linkingTwiceReturnsTheSameToken() {
+        ThemeToken base = token("base", null, null, new long[0]);
+        ThemeToken night = token("night", "base", null, new long[0]).inherit(base);
+        assertSame(night, night.inherit(base));
+    }
+}
@@ -0,0 +1,94 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class CooldownTrackerTest {
+
+    @Test
+    public void bucketRunsOutAndRefills() {
+        AtomicLong now = new AtomicLong();
+        CooldownTracker tracker = new CooldownTracker(now::get).setCooldown(ActionTarget.SERVER_ICON, 2, 100, TimeUnit.MILLISECONDS);
+        assertTrue(tracker.tryAcquire(ActionTarget.SERVER_ICON));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(30));
+        assertTrue(tracker.tryAcquire(ActionTarget.SERVER_ICON));
+        assertFalse(tracker.tryAcquire(ActionTarget.SERVER_ICON));
+        //The refill interval started with the first update
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(70), tracker.nanosUntilAvailable(ActionTarget.SERVER_ICON));
+
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(69));
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1), tracker.nanosUntilAvailable(ActionTarget.SERVER_ICON));
+        assertFalse(tracker.tryAcquire(ActionTarget.SERVER_ICON));
+        now.addAndGet(TimeUnit.MILLISECONDS.toNanos(1));
+        assertEquals(0, tracker.nanosUntilAvailable(ActionTarget.SERVER_ICON));
+        assertTrue(tracker.tryAcquire(ActionTarget.SERVER_ICON));
+        assertFalse(tracker.tryAcquire(ActionTarget.SERVER_ICON));
+
+        //Refills past the capacity are not kept
+        now.addAndGet(TimeUnit.SECONDS.toNanos(10));
+        assertEquals(2, tracker.getBudgets().get(ActionTarget.SERVER_ICON).getAvailable());
+    }
+
+    @Test
+    public void releaseGivesTokenBack() {
+        CooldownTracker tracker = CooldownTracker.unlimited().setCooldown(ActionTarget.SERVER_TITLE, 1, 1, TimeUnit.HOURS);
+        assertTrue(tracker.tryAcquire(ActionTarget.SERVER_TITLE));
+        assertFalse(tracker.tryAcquire(ActionTarget.SERVER_TITLE));
+        tracker.release(ActionTarget.SERVER_TITLE);
+        assertTrue(tracker.tryAcquire(ActionTarget.SERVER_TITLE));
+
+        //Releasing never goes over capacity
+        tracker.release(ActionTarget.SERVER_TITLE);
+        tracker.release(ActionTarget.SERVER_TITLE);
+        assertEquals(1, tracker.getBudgets().get(ActionTarget.SERVER_TITLE).getAvailable());
+    }
+
+    @Test
+    public void unlimitedTargets() {
+        CooldownTracker tracker = new CooldownTracker();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(tracker.tryAcquire(ActionTarget.ROLE_NAME));
+            assertTrue(tracker.tryAcquire(ActionTarget.BOT_NICKNAME));
+        }
+        assertFalse(tracker.getBudgets().containsKey(ActionTarget.ROLE_NAME));
+
+        tracker.setCooldown(ActionTarget.SERVER_ICON, 0, 0, TimeUnit.SECONDS);
+        for (int i = 0; i < 10; i++)
+            assertTrue(tracker.tryAcquire(ActionTarget.SERVER_ICON));
+    }
+
+    @Test
+    public void guildsShareOnlyTheAvatarBucket() {
+        CooldownTracker bot = new CooldownTracker();
+        CooldownTracker first = bot.forGuild();
+        CooldownTracker second = bot.forGuild();
+        assertTrue(first.tryAcquire(ActionTarget.BOT_AVATAR));
+        assertTrue(second.tryAcquire(ActionTarget.BOT_AVATAR));
+        assertFalse(first.tryAcquire(ActionTarget.BOT_AVATAR));
+
+        assertTrue(first.tryAcquire(ActionTarget.SERVER_ICON));
+        assertTrue(first.tryAcquire(ActionTarget.SERVER_ICON));
+        assertFalse(first.tryAcquire(ActionTarget.SERVER_ICON));
+        assertTrue(second.tryAcquire(ActionTarget.SERVER_ICON));
+    }
+
+    @Test
+    public void copiesStartFull() {
+        CooldownTracker budgets = new CooldownTracker();
+        budgets.tryAcquire(ActionTarget.SERVER_ICON);
+        CooldownTracker copy = new CooldownTracker(budgets);
+        assertEquals(2, copy.getBudgets().get(ActionTarget.SERVER_ICON).getAvailable());
+        assertEquals(1, budgets.getBudgets().get(ActionTarget.SERVER_ICON).getAvailable());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void roleNamesCannotBeLimited() {
+        new CooldownTracker().setCooldown(ActionTarget.ROLE_NAME, 1, 1, TimeUnit.MINUTES);
+    }
+}
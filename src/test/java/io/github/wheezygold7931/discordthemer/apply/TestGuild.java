@@ -0,0 +1,285 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import net.dv8tion.jda.api.JDA;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Member;
+import net.dv8tion.jda.api.entities.Role;
+import net.dv8tion.jda.api.entities.SelfUser;
+import net.dv8tion.jda.api.requests.restaction.AuditableRestAction;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link Guild} (with its roles, self member and JDA) built from {@link Proxy}s, whose RestActions only complete when the test answers them.
+ * Answered changes are written back into the entities like JDA's cache does on the gateway event, images get a new id for every upload.
+ * With {@link TestGuild#setCacheLag(boolean)} image ids are only updated by {@link TestGuild#deliverEvents()}, standing in for a late gateway event.
+ */
+final class TestGuild {
+
+    static final long FIRST_ROLE_ID = 200000000000000000L;
+
+    private final Map<String, String> state = new ConcurrentHashMap<>();
+    private final Map<Long, Role> roles = new LinkedHashMap<>();
+    private final List<Request> requests = new ArrayList<>();
+    private final List<Runnable> events = new ArrayList<>();
+    private final Guild guild;
+    private final JDA jda;
+    private int uploads = 0;
+    private boolean cacheLag = false;
+
+    /**
+     * @param roleCount The amount of roles, named "Role 0", "Role 1", ... with ids starting at {@link TestGuild#FIRST_ROLE_ID}.
+     */
+    TestGuild(int roleCount) {
+        state.put("title", "Guild");
+        state.put("icon", "icon");
+        state.put("avatar", "avatar");
+        for (int i = 0; i < roleCount; i++) {
+            long roleId = FIRST_ROLE_ID + i;
+            state.put(Long.toString(roleId), "Role " + i);
+            roles.put(roleId, role(roleId));
+        }
+
+        SelfUser selfUser = stub(SelfUser.class, (method, args) -> {
+            switch (method) {
+                case "getAvatarId":
+                    return state.get("avatar");
+                case "getManager":
+                    return manager(net.dv8tion.jda.api.managers.AccountManager.class, null, "avatar");
+                default:
+                    return null;
+            }
+        });
+        Member self = stub(Member.class, (method, args) -> {
+            switch (method) {
+                case "hasPermission":
+                case "canInteract":
+                    return true;
+                case "getNickname":
+                    return state.get("nickname");
+                default:
+                    return null;
+            }
+        });
+        jda = stub(JDA.class, (method, args) -> method.equals("getSelfUser") ? selfUser : null);
+        guild = stub(Guild.class, (method, args) -> {
+            switch (method) {
+                case "getName":
+                    return state.get("title");
+                case "getIconId":
+                    return state.get("icon");
+                case "getRoles":
+                    return new ArrayList<>(roles.values());
+                case "getRoleById":
+                    return roles.get(args[0] instanceof String ? Long.parseLong((String) args[0]) : (Long) args[0]);
+                case "getSelfMember":
+                    return self;
+                case "getJDA":
+                    return jda;
+                case "getManager":
+                    return manager(net.dv8tion.jda.api.managers.GuildManager.class, "title", "icon");
+                case "modifyNickname":
+                    String nickname = (String) args[1];
+                    return action("nickname", () -> state.put("nickname", nickname));
+                default:
+                    return null;
+            }
+        });
+    }
+
+    Guild getGuild() {
+        return guild;
+    }
+
+    JDA getJDA() {
+        return jda;
+    }
+
+    String get(String key) {
+        return state.get(key);
+    }
+
+    /**
+     * @param cacheLag If true answered image uploads only change the image ids once {@link TestGuild#deliverEvents()} is called.
+     */
+    void setCacheLag(boolean cacheLag) {
+        this.cacheLag = cacheLag;
+    }
+
+    /**
+     * @return The descriptions of the requests which have not been answered yet, such as "title" or "icon".
+     */
+    synchronized List<String> getPending() {
+        List<String> pending = new ArrayList<>();
+        for (Request request : requests) {
+            if (!request.future.isDone())
+                pending.add(request.description);
+        }
+        return pending;
+    }
+
+    /**
+     * Marks every request sent so far as being processed by Discord, they can no longer be cancelled.
+     */
+    synchronized void processAll() {
+        for (Request request : requests)
+            request.processing = true;
+    }
+
+    /**
+     * Answers every request sent so far, requests which were cancelled are skipped.
+     */
+    void answerAll() {
+        List<Request> answered;
+        synchronized (this) {
+            answered = new ArrayList<>(requests);
+            requests.clear();
+        }
+        for (Request request : answered) {
+            if (request.future.isDone())
+                continue;
+            request.onSuccess.run();
+            request.future.complete(null);
+        }
+    }
+
+    /**
+     * Applies the image id changes held back by the cache lag.
+     */
+    void deliverEvents() {
+        List<Runnable> delivered;
+        synchronized (this) {
+            delivered = new ArrayList<>(events);
+            events.clear();
+        }
+        delivered.forEach(Runnable::run);
+    }
+
+    private Role role(long roleId) {
+        String key = Long.toString(roleId);
+        return stub(Role.class, (method, args) -> {
+            switch (method) {
+                case "getId":
+                    return key;
+                case "getIdLong":
+                    return roleId;
+                case "getName":
+                    return state.get(key);
+                case "getManager":
+                    return manager(net.dv8tion.jda.api.managers.RoleManager.class, key, null);
+                default:
+                    return null;
+            }
+        });
+    }
+
+    /**
+     * Creates a manager whose setters collect the changes, submitting it sends one request.
+     * @param nameKey The state key setName changes.
+     * @param imageKey The state key setIcon and setAvatar change.
+     */
+    private <T> T manager(Class<T> type, String nameKey, String imageKey) {
+        Map<String, String> changes = new LinkedHashMap<>();
+        return stub(type, (method, args) -> {
+            switch (method) {
+                case "setName":
+                    changes.put(nameKey, (String) args[0]);
+                    return null;
+                case "setIcon":
+                case "setAvatar":
+                    changes.put(imageKey, null);
+                    return null;
+                case "submit":
+                    return submit(String.join(",", changes.keySet()), () -> {
+                        for (Map.Entry<String, String> change : changes.entrySet()) {
+                            if (change.getKey().equals(imageKey))
+                                uploaded(imageKey);
+                            else
+                                state.put(change.getKey(), change.getValue());
+                        }
+                    });
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private synchronized void uploaded(String imageKey) {
+        String id = imageKey + "-" + ++uploads;
+        if (cacheLag)
+            events.add(() -> state.put(imageKey, id));
+        else
+            state.put(imageKey, id);
+    }
+
+    private AuditableRestAction<?> action(String description, Runnable onSuccess) {
+        return stub(AuditableRestAction.class, (method, args) -> method.equals("submit") ? submit(description, onSuccess) : null);
+    }
+
+    private synchronized CompletableFuture<Void> submit(String description, Runnable onSuccess) {
+        Request request = new Request(description, onSuccess);
+        requests.add(request);
+        return request.future;
+    }
+
+    private static class Request {
+        private final String description;
+        private final Runnable onSuccess;
+        private volatile boolean processing = false;
+        private final CompletableFuture<Void> future = new CompletableFuture<Void>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return !processing && super.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        private Request(String description, Runnable onSuccess) {
+            this.description = description;
+            this.onSuccess = onSuccess;
+        }
+    }
+
+    private interface Answer {
+        Object answer(String method, Object[] args);
+    }
+
+    /**
+     * Creates a proxy of a JDA interface. Fluent setters return the proxy itself, methods without an answer return the default value.
+     */
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, Answer answer) {
+        return (T) Proxy.newProxyInstance(TestGuild.class.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            Object result = answer.answer(method.getName(), args);
+            if (result != null)
+                return result;
+            switch (method.getName()) {
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return type.getSimpleName() + "Stub";
+                case "reason":
+                    return proxy;
+                default:
+                    break;
+            }
+            Class<?> returnType = method.getReturnType();
+            if (returnType.isInstance(proxy))
+                return proxy;
+            if (returnType == boolean.class)
+                return false;
+            if (returnType == int.class)
+                return 0;
+            if (returnType == long.class)
+                return 0L;
+            return null;
+        });
+    }
+}
@@ -0,0 +1,159 @@
+package io.github.wheezygold7931.discordthemer.apply;
+
+import io.github.wheezygold7931.discordthemer.InMemoryThemeSource;
+import io.github.wheezygold7931.discordthemer.ThemeToken;
+import io.github.wheezygold7931.discordthemer.metrics.ThemerListener;
+import io.github.wheezygold7931.discordthemer.util.ActionMode;
+import io.github.wheezygold7931.discordthemer.util.DiscordThemerLogger;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ThemeApplierTest {
+
+    private static final DiscordThemerLogger LOGGER = new DiscordThemerLogger("[test]", false, false, false, false);
+
+    private final TestGuild guild = new TestGuild(3);
+    private final InMemoryThemeSource source = new InMemoryThemeSource();
+
+    private ThemeApplier applier(ActionMode actionMode, int maxActionsInFlight) {
+        return new ThemeApplier(guild.getJDA(), guild.getGuild(), source, actionMode, maxActionsInFlight, new IconCache(1 << 20), CooldownTracker.unlimited(), ThemerListener.NONE, LOGGER);
+    }
+
+    /**
+     * @param roleNames The names of the guild's roles, in order.
+     */
+    private static ThemeToken token(String themeName, String title, String... roleNames) {
+        return new ThemeToken(themeName) {{
+            addMetaData("name", themeName);
+            if (title != null)
+                addMetaData("title", title);
+            for (int i = 0; i < roleNames.length; i++)
+                addData(TestGuild.FIRST_ROLE_ID + i, roleNames[i]);
+            finalizeToken();
+        }};
+    }
+
+    private static List<ActionResult.Status> statuses(ApplyReport report) {
+        List<ActionResult.Status> statuses = new ArrayList<>();
+        for (ActionResult result : report.getResults())
+            statuses.add(result.getStatus());
+        return statuses;
+    }
+
+    @Test
+    public void onlyChangedFieldsAreSent() {
+        ThemeApplier applier = applier(ActionMode.QUEUE, 4);
+        CompletableFuture<ApplyReport> future = applier.apply("day", token("day", "Guild", "Role 0", "Day", "Role 2"));
+        assertEquals(Collections.singletonList(Long.toString(TestGuild.FIRST_ROLE_ID + 1)), guild.getPending());
+        assertFalse(future.isDone());
+
+        guild.answerAll();
+        ApplyReport report = future.join();
+        assertEquals(1, report.getSentCount());
+        assertEquals(3, report.getSkippedCount());
+        assertEquals(Collections.singletonList(ActionResult.Status.SUCCESS), statuses(report));
+        assertEquals("Day", guild.get(Long.toString(TestGuild.FIRST_ROLE_ID + 1)));
+    }
+
+    @Test
+    public void newerSwitchCancelsQueuedActions() {
+        ThemeApplier applier = applier(ActionMode.QUEUE, 4);
+        CompletableFuture<ApplyReport> day = applier.apply("day", token("day", "Day", "Day 0", "Day 1"));
+        assertEquals(3, guild.getPending().size());
+
+        CompletableFuture<ApplyReport> night = applier.apply("night", token("night", "Night", "Night 0", "Night 1"));
+        ApplyReport dayReport = day.join();
+        assertTrue(dayReport.isSuperseded());
+        assertEquals(3, dayReport.getSentCount());
+        assertEquals(3, dayReport.getCancelledCount());
+
+        //The night switch starts once the day switch has settled and only sends its own actions
+        assertEquals(3, guild.getPending().size());
+        guild.answerAll();
+        ApplyReport nightReport = night.join();
+        assertFalse(nightReport.isSuperseded());
+        assertEquals(3, nightReport.getSentCount());
+        assertEquals(0, nightReport.getCancelledCount());
+        assertEquals("Night", guild.get("title"));
+    }
+
+    @Test
+    public void waitingSwitchIsReplaced() {
+        ThemeApplier applier = applier(ActionMode.QUEUE, 4);
+        CompletableFuture<ApplyReport> day = applier.apply("day", token("day", "Day"));
+        //Discord is already processing the title, so the day switch cannot be cancelled anymore
+        guild.processAll();
+        CompletableFuture<ApplyReport> dusk = applier.apply("dusk", token("dusk", "Dusk"));
+        CompletableFuture<ApplyReport> night = applier.apply("night", token("night", "Night"));
+
+        ApplyReport duskReport = dusk.join();
+        assertTrue(duskReport.isSuperseded());
+        assertEquals(0, duskReport.getSentCount());
+        assertFalse(day.isDone());
+
+        guild.answerAll();
+        assertFalse(day.join().isSuperseded());
+        assertEquals("Day", guild.get("title"));
+        guild.answerAll();
+        assertEquals(1, night.join().getSentCount());
+        assertEquals("Night", guild.get("title"));
+    }
+
+    @Test
+    public void pendingAsyncActionsAreNotCountedAsSent() {
+        ThemeApplier applier = applier(ActionMode.ASYNC, 1);
+        CompletableFuture<ApplyReport> day = applier.apply("day", token("day", null, "Day 0", "Day 1", "Day 2"));
+        assertEquals(1, guild.getPending().size());
+
+        applier.apply("night", token("night", null, "Night 0", "Night 1", "Night 2"));
+        ApplyReport dayReport = day.join();
+        assertTrue(dayReport.isSuperseded());
+        assertEquals(1, dayReport.getSentCount());
+        assertEquals(3, dayReport.getCancelledCount());
+    }
+
+    @Test
+    public void uploadedIconIsLearnedAfterCacheLag() {
+        ThemeApplier applier = applier(ActionMode.QUEUE, 4);
+        source.addImage("day.png", new byte[]{1, 2, 3});
+        ThemeToken day = new ThemeToken("day") {{
+            addMetaData("name", "day");
+            addMetaData("icon", "day.png");
+            finalizeToken();
+        }};
+        guild.setCacheLag(true);
+
+        CompletableFuture<ApplyReport> first = applier.apply("day", day);
+        assertEquals(Collections.singletonList("icon"), guild.getPending());
+        guild.answerAll();
+        assertEquals(1, first.join().getSentCount(ActionTarget.SERVER_ICON));
+        //The upload has completed but JDA's cache still reports the old icon
+        assertEquals("icon", guild.get("icon"));
+        guild.deliverEvents();
+
+        CompletableFuture<ApplyReport> second = applier.apply("day", day);
+        assertTrue(guild.getPending().isEmpty());
+        assertEquals(1, second.join().getSkippedCount(ActionTarget.SERVER_ICON));
+        assertEquals(0, second.join().getSentCount());
+    }
+
+    @Test
+    public void completedReportsDoNotChange() {
+        ThemeApplier applier = applier(ActionMode.QUEUE, 4);
+        CompletableFuture<ApplyReport> day = applier.apply("day", token("day", "Day"));
+        guild.answerAll();
+        ApplyReport report = day.join();
+        applier.apply("night", token("night", "Night"));
+        assertFalse(report.isSuperseded());
+        assertEquals(0, report.getCancelledCount());
+        assertEquals(Collections.singletonList(ActionResult.Status.SUCCESS), statuses(report));
+    }
+}
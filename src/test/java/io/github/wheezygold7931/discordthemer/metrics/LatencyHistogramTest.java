@@ -0,0 +1,52 @@
+package io.github.wheezygold7931.discordthemer.metrics;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMeanNanos());
+        assertEquals(0, histogram.getPercentileNanos(99));
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        //90 values in [512, 1023], 10 values in [65536, 131071]
+        for (int i = 0; i < 90; i++)
+            histogram.record(1000);
+        for (int i = 0; i < 10; i++)
+            histogram.record(100000);
+        assertEquals(100, histogram.getCount());
+        assertEquals((90 * 1000 + 10 * 100000) / 100, histogram.getMeanNanos());
+        assertEquals(1023, histogram.getPercentileNanos(0));
+        assertEquals(1023, histogram.getPercentileNanos(50));
+        assertEquals(1023, histogram.getPercentileNanos(90));
+        assertEquals(131071, histogram.getPercentileNanos(91));
+        assertEquals(131071, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void edgeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+        histogram.record(0);
+        histogram.record(1);
+        assertEquals(1, histogram.getPercentileNanos(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.getPercentileNanos(100));
+    }
+
+    @Test
+    public void percentileIsClamped() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(3);
+        assertEquals(3, histogram.getPercentileNanos(-10));
+        assertEquals(3, histogram.getPercentileNanos(250));
+    }
+}